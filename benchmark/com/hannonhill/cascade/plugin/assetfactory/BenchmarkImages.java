@@ -0,0 +1,105 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generates the image fixtures the benchmarks run against, so no binary fixtures have to be checked in. The
+ * images are 4:3 and contain gradients, shapes and noise, which keeps the encoders from compressing them
+ * unrealistically well. The same seed is used every time, so every run resizes the same pixels.
+ *
+ * @since 8.17
+ */
+final class BenchmarkImages
+{
+    private static final long SEED = 8017;
+
+    private BenchmarkImages()
+    {
+    }
+
+    /**
+     * Creates an image of about the given size and encodes it in the given format.
+     *
+     * @param format the ImageIO format name, e.g. jpg, png, bmp or gif
+     * @param megapixels the number of pixels, in millions
+     * @return the encoded image bytes
+     * @throws IOException if the image could not be encoded
+     */
+    static byte[] createImage(String format, double megapixels) throws IOException
+    {
+        int height = (int) Math.round(Math.sqrt(megapixels * 1000000 * 3 / 4));
+        int width = height * 4 / 3;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(SEED);
+
+        Graphics2D g = image.createGraphics();
+        try
+        {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setPaint(new GradientPaint(0, 0, new Color(30, 90, 160), width, height, new Color(230, 180, 60)));
+            g.fillRect(0, 0, width, height);
+            for (int i = 0; i < 200; i++)
+            {
+                g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), 128));
+                int size = 1 + random.nextInt(Math.max(1, width / 5));
+                g.fillOval(random.nextInt(width), random.nextInt(height), size, size);
+            }
+        }
+        finally
+        {
+            g.dispose();
+        }
+
+        // sensor-like noise, one row at a time
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++)
+        {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++)
+            {
+                int noise = random.nextInt(17) - 8;
+                int r = clamp(((row[x] >> 16) & 0xff) + noise);
+                int gr = clamp(((row[x] >> 8) & 0xff) + noise);
+                int b = clamp((row[x] & 0xff) + noise);
+                row[x] = (r << 16) | (gr << 8) | b;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out))
+            throw new IOException("No image writer for " + format);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the image bytes the way the plug-in receives the original, so the benchmarks resize the same image
+     * type (e.g. an indexed GIF) the plug-in would.
+     *
+     * @param data the encoded image bytes
+     * @return the decoded image
+     * @throws IOException if the bytes could not be decoded
+     */
+    static BufferedImage decode(byte[] data) throws IOException
+    {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null)
+            throw new IOException("Unable to decode the generated image");
+        return image;
+    }
+
+    private static int clamp(int value)
+    {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,58 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.awt.Dimension;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures CreateResizedImagesPlugin.getNewImageDimensions for pixel and percentage widths and heights, with
+ * one or both of them given.
+ *
+ * @since 8.17
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NewImageDimensionsBenchmark
+{
+    @Param({ "0.5", "2", "12", "50" })
+    public double megapixels;
+
+    /** The width and height parameters, separated by a '|' */
+    @Param({ "800|", "|600", "50%|", "800|600", "25%|10%" })
+    public String size;
+
+    private Dimension originalDimensions;
+    private String width;
+    private String height;
+
+    @Setup
+    public void setUp()
+    {
+        int originalHeight = (int) Math.round(Math.sqrt(megapixels * 1000000 * 3 / 4));
+        originalDimensions = new Dimension(originalHeight * 4 / 3, originalHeight);
+        int separator = size.indexOf('|');
+        width = size.substring(0, separator);
+        height = size.substring(separator + 1);
+    }
+
+    @Benchmark
+    public Dimension getNewImageDimensions() throws Exception
+    {
+        return CreateResizedImagesPlugin.getNewImageDimensions(originalDimensions, height, width);
+    }
+}
@@ -0,0 +1,76 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.imgscalr.Scalr.Method;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures CreateResizedImagesPlugin.resizeImage and getResizedImage for every combination of original format,
+ * original size, resize method and target width. The target height is left empty, so the aspect ratio is kept
+ * the way most asset factories are configured. Throughput and sampled latency (with percentiles) are both
+ * reported; add "-prof gc" to the JMH arguments for the allocation rate.
+ *
+ * @since 8.17
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ResizeBenchmark
+{
+    @Param({ "jpg", "png", "bmp", "gif" })
+    public String format;
+
+    @Param({ "0.5", "2", "12", "50" })
+    public double megapixels;
+
+    @Param({ "SPEED", "BALANCED", "QUALITY", "ULTRA_QUALITY", "AUTOMATIC" })
+    public Method method;
+
+    /** Target widths: a thumbnail, a content image and a full-width banner */
+    @Param({ "150", "800", "1920" })
+    public String width;
+
+    private BufferedImage original;
+    private Dimension newDimensions;
+    private String extension;
+    private final AtomicLong reusedBufferBytes = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        original = BenchmarkImages.decode(BenchmarkImages.createImage(format, megapixels));
+        newDimensions = CreateResizedImagesPlugin.getNewImageDimensions(new Dimension(original.getWidth(), original.getHeight()), "", width);
+        // the plug-in writes resized GIFs as JPEGs
+        extension = format.equals("gif") ? "jpg" : format;
+    }
+
+    @Benchmark
+    public BufferedImage resizeImage()
+    {
+        return CreateResizedImagesPlugin.resizeImage(original, method, newDimensions.width, newDimensions.height);
+    }
+
+    @Benchmark
+    public byte[] getResizedImage() throws Exception
+    {
+        return CreateResizedImagesPlugin.getResizedImage(original, newDimensions, method, -1, extension, reusedBufferBytes);
+    }
+}
@@ -1,9 +1,8 @@
 package com.hannonhill.cascade.plugin.assetfactory;
 
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Formatter;
 import java.util.List;
 
 import com.cms.assetfactory.BaseAssetFactoryPlugin;
@@ -70,6 +69,12 @@ public abstract class AssetFieldsPlugin extends BaseAssetFactoryPlugin
     // common fields
     protected String _stIdentifiers;
     protected String _stSpaceToken;
+    /** The Field IDs parameter compiled by commonValidation */
+    protected FieldIdentifierPlan _fieldPlan;
+    /** The structured data of the asset being created, indexed by the first structured data field looked up */
+    private StructuredDataIndex _structuredDataIndex;
+    /** The dynamic metadata of the asset being created, indexed by the first dynamic metadata field looked up */
+    private DynamicMetadataIndex _dynamicMetadataIndex;
 
     /**
      * Searches the provided Metadata for the given wired metadata field name (stIdentifier) and
@@ -79,72 +84,65 @@ public abstract class AssetFieldsPlugin extends BaseAssetFactoryPlugin
      * @return List<String> containing the value(s) of the specified wired metadata field
      */
     protected List<String> searchWiredMetadata(Metadata metadata, String stIdentifier) throws PluginException
+    {
+        return this.getWiredMetadataValues(metadata, FieldIdentifierPlan.getWiredMetadataField(stIdentifier));
+    }
+
+    /**
+     * Returns the value (if any) of the given wired metadata field.
+     * @param metadata Metadata object to be searched
+     * @param wiredField one of the METADATA_* constants, or null
+     * @return List<String> containing the value(s) of the specified wired metadata field
+     */
+    private List<String> getWiredMetadataValues(Metadata metadata, String wiredField) throws PluginException
     {
         List<String> liReturn = new ArrayList<String>();
         try
         {
-            if (stIdentifier.contains(METADATA_TITLE))
+            if (METADATA_TITLE.equals(wiredField))
             {
                 liReturn.add(metadata.getTitle().trim());
             }
-            else if (stIdentifier.contains(METADATA_DISPLAY_NAME))
+            else if (METADATA_DISPLAY_NAME.equals(wiredField))
             {
                 liReturn.add(metadata.getDisplayName().trim());
             }
-            else if (stIdentifier.contains(METADATA_DESCRIPTION))
+            else if (METADATA_DESCRIPTION.equals(wiredField))
             {
                 liReturn.add(metadata.getDescription().trim());
             }
-            else if (stIdentifier.contains(METADATA_AUTHOR))
+            else if (METADATA_AUTHOR.equals(wiredField))
             {
                 liReturn.add(metadata.getAuthor().trim());
             }
-            else if (stIdentifier.contains(METADATA_KEYWORDS))
+            else if (METADATA_KEYWORDS.equals(wiredField))
             {
                 liReturn.add(metadata.getKeywords().trim());
             }
-            else if (stIdentifier.contains(METADATA_SUMMARY))
+            else if (METADATA_SUMMARY.equals(wiredField))
             {
                 liReturn.add(metadata.getSummary().trim());
             }
-            else if (stIdentifier.contains(METADATA_TEASER))
+            else if (METADATA_TEASER.equals(wiredField))
             {
                 liReturn.add(metadata.getTeaser().trim());
             }
-            else if (stIdentifier.contains(METADATA_START_DATE))
+            else if (METADATA_START_DATE.equals(wiredField))
             {
                 // use date format of: yyyy-mm-dd
-                Date startDate = metadata.getStartDate();
-                Calendar cal = Calendar.getInstance();
-                cal.setTime(startDate);
-                Formatter format = new Formatter();
-                String stDate = format.format("%tF", cal).toString();
-                format.close();
-                liReturn.add(stDate);
+                liReturn.add(DateComponents.of(metadata.getStartDate()).getIsoDate());
             }
-            else if (stIdentifier.contains(METADATA_END_DATE))
+            else if (METADATA_END_DATE.equals(wiredField))
             {
                 // use date format of yyyy-mm-dd
-                Date endDate = metadata.getEndDate();
-                Calendar cal = Calendar.getInstance();
-                cal.setTime(endDate);
-                Formatter format = new Formatter();
-                String stDate = format.format("%tF", cal).toString();
-                format.close();
-                liReturn.add(stDate);
+                liReturn.add(DateComponents.of(metadata.getEndDate()).getIsoDate());
             }
-            else if (stIdentifier.contains(METADATA_REVIEW_DATE))
+            else if (METADATA_REVIEW_DATE.equals(wiredField))
             {
                 // use date format of yyyy-mm-dd
-                Date reviewDate = metadata.getReviewDate();
-                Calendar cal = Calendar.getInstance();
-                cal.setTime(reviewDate);
-                Formatter format = new Formatter();
-                String stDate = format.format("%tF", cal).toString();
-                format.close();
-                liReturn.add(stDate);
+                liReturn.add(DateComponents.of(metadata.getReviewDate()).getIsoDate());
             }
-            else if (stIdentifier.contains(METADATA_EXPIRATION_FOLDER))
+            else if (METADATA_EXPIRATION_FOLDER.equals(wiredField))
             {
                 // not a valid field for auto-name generation
             }
@@ -168,31 +166,19 @@ public abstract class AssetFieldsPlugin extends BaseAssetFactoryPlugin
      */
     protected List<String> searchDynamicMetadata(DynamicMetadataField[] dynamicFields, String stIdentifier)
     {
-        List<String> liReturn = new ArrayList<String>();
-        int startIndex = stIdentifier.indexOf(CUSTOM_METADATA_TOKEN) + CUSTOM_METADATA_TOKEN.length();
-        String stNodeName = stIdentifier.substring(startIndex);
-
-        if (stNodeName.startsWith("/"))
-        {
-            stNodeName = stNodeName.substring(1);
-        }
-
-        for (int i = 0; i < dynamicFields.length; i++)
-        {
-            if (dynamicFields[i].getName().equals(stNodeName))
-            {
-                for (int j = 0; j < dynamicFields[i].getValues().length; j++)
-                {
-                    if (dynamicFields[i].getValues()[j] != null && dynamicFields[i].getValues()[j].trim() != "")
-                    {
-                        liReturn.add(dynamicFields[i].getValues()[j].trim());
-                    }
-
-                }
-            }
-        }
+        return this.getDynamicMetadataValues(new DynamicMetadataIndex(dynamicFields), FieldIdentifierPlan.getDynamicMetadataName(stIdentifier));
+    }
 
-        return liReturn;
+    /**
+     * Returns the values of the dynamic metadata field with the given name.
+     *
+     * @param index the index of the asset's dynamic metadata
+     * @param stNodeName the name of the custom field
+     * @return List<String> containing the value(s) of the specified custom field
+     */
+    private List<String> getDynamicMetadataValues(DynamicMetadataIndex index, String stNodeName)
+    {
+        return new ArrayList<String>(Arrays.asList(index.getValues(stNodeName)));
     }
 
     /**
@@ -204,118 +190,110 @@ public abstract class AssetFieldsPlugin extends BaseAssetFactoryPlugin
      * @return List<String> containing the value(s) of the specified field
      */
     protected List<String> searchStructuredData(StructuredDataNode[] structuredData, String sdIdentifier) throws PluginException
+    {
+        String key = StructuredDataIndex.getKey(FieldIdentifierPlan.getStructuredDataPath(sdIdentifier));
+        return this.getStructuredDataValues(new StructuredDataIndex(structuredData), key);
+    }
+
+    /**
+     * Returns the values of the structured data text fields indexed under the given key.
+     *
+     * @param index the index of the asset's structured data
+     * @param key the key of the field, as returned by StructuredDataIndex.getKey(String[])
+     * @return List<String> containing the value(s) of the specified field
+     */
+    private List<String> getStructuredDataValues(StructuredDataIndex index, String key) throws PluginException
     {
         List<String> liReturn = new ArrayList<String>();
-        if (sdIdentifier.contains(STRUCTURED_DATA_TOKEN))
+        for (StructuredDataNode node : index.getNodes(key))
         {
-            int startIndex = sdIdentifier.indexOf(STRUCTURED_DATA_TOKEN) + STRUCTURED_DATA_TOKEN.length();
-            sdIdentifier = sdIdentifier.substring(startIndex);
+            liReturn.addAll(this.getTextNodeValues(node));
         }
+        return liReturn;
+    }
 
-        if (sdIdentifier.startsWith("/"))
-            sdIdentifier = sdIdentifier.substring(1);
-
-        if (sdIdentifier.contains("/"))
+    /**
+     * Returns the value(s) of a structured data text field: dates are formatted as yyyy-mm-dd, all selected
+     * values are returned for check-boxes & multi-selects, and WYSIWYG fields have no value.
+     *
+     * @param node the text field
+     * @return List<String> containing the value(s) of the field
+     */
+    private List<String> getTextNodeValues(StructuredDataNode node) throws PluginException
+    {
+        List<String> liReturn = new ArrayList<String>();
+        try
         {
-            String[] nodePath = sdIdentifier.split("/");
-            String curNode = nodePath[0];
-            String subNodes = "";
-            for (int i = 1; i < nodePath.length; i++)
+            String[] nodeValues = node.getTextValues();
+            String nodeValue = null;
+            if (nodeValues.length > 0 && nodeValues[0] != null && nodeValues[0].trim() != "")
             {
-                subNodes += nodePath[i] + (i != nodePath.length - 1 ? "/" : "");
-            }
+                nodeValue = nodeValues[0];
 
-            for (StructuredDataNode node : structuredData)
-            {
-                if (node.isGroup() && curNode.equals(node.getIdentifier()))
+                // for date/time & calendar, return formatted date string, i.e. yyyy-mm-dd
+                if (node.getTextNodeOptions().isDatetime())
                 {
-                    liReturn.addAll(searchStructuredData(node.getGroup(), subNodes));
+                    Date date = new Date(Long.valueOf(nodeValue).longValue());
+                    liReturn.add(DateComponents.of(date).getIsoDate());
                 }
-            }
-        }
-        else
-        {
-            for (StructuredDataNode node : structuredData)
-            {
-                if (node.isGroup())
+                else if (node.getTextNodeOptions().isCalendar())
                 {
-                    liReturn.addAll(searchStructuredData(node.getGroup(), sdIdentifier));
+
+                    String[] dateParts = nodeValue.split("-");
+                    int month = Integer.parseInt(dateParts[0]);
+                    int day = Integer.parseInt(dateParts[1]);
+                    int year = Integer.parseInt(dateParts[2]);
+
+                    liReturn.add(DateComponents.of(year, month, day).getIsoDate());
+
                 }
-                else if (sdIdentifier.equals(node.getIdentifier()) && node.isText())
+                // for check-box & multi-select (where multiple values are allowed), concatenate all selected values
+                else if (node.getTextNodeOptions().isCheckbox() || node.getTextNodeOptions().isMultiselect())
                 {
-                	try
-                    {
-	                    String[] nodeValues = node.getTextValues();
-	                    String nodeValue = null;
-	                    if (nodeValues.length > 0 && nodeValues[0] != null && nodeValues[0].trim() != "")
-	                    {
-	                        nodeValue = nodeValues[0];
-
-	                        // for date/time & calendar, return formatted date string, i.e. yyyy-mm-dd
-	                        if (node.getTextNodeOptions().isDatetime())
-	                        {
-	                            Date date = new Date(Long.valueOf(nodeValue).longValue());
-	                            Calendar cal = Calendar.getInstance();
-	                            cal.setTime(date);
-	                            Formatter format = new Formatter();
-	                            String stDate = format.format("%tF", cal).toString();
-	                            format.close();
-	                            liReturn.add(stDate);
-	                        }
-	                        else if (node.getTextNodeOptions().isCalendar())
-	                        {
-
-	                            String[] dateParts = nodeValue.split("-");
-	                            int month = Integer.parseInt(dateParts[0]) - 1; // because month is zero-based
-	                            int day = Integer.parseInt(dateParts[1]);
-	                            int year = Integer.parseInt(dateParts[2]);
-
-	                            Calendar cal = Calendar.getInstance();
-	                            cal.set(year, month, day);
-	                            Formatter format = new Formatter();
-	                            String stDate = format.format("%tF", cal).toString();
-	                            format.close();
-	                            liReturn.add(stDate);
-
-	                        }
-	                        // for check-box & multi-select (where multiple values are allowed), concatenate all selected values
-	                        else if (node.getTextNodeOptions().isCheckbox() || node.getTextNodeOptions().isMultiselect())
-	                        {
-	                            for (int i = 0; i < nodeValues.length; i++)
-	                            {
-	                                if (nodeValues[i] != null && nodeValues[i].trim() != "")
-	                                {
-	                                    liReturn.add(nodeValues[i].trim());
-	                                }
-
-	                            }
-	                        }
-	                        else if (!(node.getTextNodeOptions().isWysiwyg()))
-	                        {
-	                            liReturn.add(nodeValue.trim());
-	                        }
-	                    }
-                    }
-                	catch (Exception e)
+                    for (int i = 0; i < nodeValues.length; i++)
                     {
-                        this.setAllowCreation(false, e.getMessage());
-                        throw new FatalPluginException(e.getMessage());
+                        if (nodeValues[i] != null && nodeValues[i].trim() != "")
+                        {
+                            liReturn.add(nodeValues[i].trim());
+                        }
+
                     }
                 }
-
+                else if (!(node.getTextNodeOptions().isWysiwyg()))
+                {
+                    liReturn.add(nodeValue.trim());
+                }
             }
         }
+        catch (Exception e)
+        {
+            this.setAllowCreation(false, e.getMessage());
+            throw new FatalPluginException(e.getMessage());
+        }
         return liReturn;
     }
 
     protected List<String> getFieldValues(String stIdentifier, FolderContainedAsset asset) throws PluginException
     {
+        return this.getFieldValues(FieldIdentifierPlan.compileField(stIdentifier), asset);
+    }
+
+    /**
+     * Returns the value(s) of the compiled field on the asset.
+     * @param field a field of the plan compiled from the Field IDs parameter
+     * @param asset the asset being created
+     * @return List<String> containing the value(s) of the field
+     * @throws PluginException if the field has no value
+     */
+    List<String> getFieldValues(FieldIdentifierPlan.Field field, FolderContainedAsset asset) throws PluginException
+    {
+        String stIdentifier = field.getIdentifier();
         List<String> liValues = new ArrayList<String>();
         // make sure asset is metadata-enabled
         MetadataAwareAsset maa = (MetadataAwareAsset) asset;
 
         // determine what type of field we are dealing with
-        if (stIdentifier.contains(CUSTOM_METADATA_TOKEN))
+        if (field.getType() == FieldIdentifierPlan.TYPE_DYNAMIC_METADATA)
         {
             // dynamic metadata fields
             DynamicMetadataField[] dynamicMetadata = maa.getMetadata().getDynamicFields();
@@ -324,7 +302,9 @@ public abstract class AssetFieldsPlugin extends BaseAssetFactoryPlugin
                 this.setAllowCreation(false, INVALID_DYNAMIC_METADATA_ERROR + stIdentifier);
                 throw new FatalPluginException(INVALID_DYNAMIC_METADATA_ERROR + stIdentifier);
             }
-            liValues = this.searchDynamicMetadata(dynamicMetadata, stIdentifier);
+            if (_dynamicMetadataIndex == null)
+                _dynamicMetadataIndex = new DynamicMetadataIndex(dynamicMetadata);
+            liValues = this.getDynamicMetadataValues(_dynamicMetadataIndex, field.getName());
             if (liValues.size() == 0)
             {
                 this.setAllowCreation(false, INVALID_DYNAMIC_METADATA_ERROR + stIdentifier);
@@ -332,7 +312,7 @@ public abstract class AssetFieldsPlugin extends BaseAssetFactoryPlugin
             }
 
         }
-        else if (stIdentifier.contains(STRUCTURED_DATA_TOKEN))
+        else if (field.getType() == FieldIdentifierPlan.TYPE_STRUCTURED_DATA)
         {
             // make sure asset is structured data capable
             if (!this.isStructuredDataCapable(asset))
@@ -349,7 +329,9 @@ public abstract class AssetFieldsPlugin extends BaseAssetFactoryPlugin
                 this.setAllowCreation(false, INVALID_STRUCTURED_DATA_ERROR + stIdentifier);
                 throw new FatalPluginException(INVALID_STRUCTURED_DATA_ERROR + stIdentifier);
             }
-            liValues = this.searchStructuredData(structuredData, stIdentifier);
+            if (_structuredDataIndex == null)
+                _structuredDataIndex = new StructuredDataIndex(structuredData);
+            liValues = this.getStructuredDataValues(_structuredDataIndex, field.getPathKey());
             if (liValues.size() == 0)
             {
                 this.setAllowCreation(false, INVALID_STRUCTURED_DATA_ERROR + stIdentifier);
@@ -360,7 +342,7 @@ public abstract class AssetFieldsPlugin extends BaseAssetFactoryPlugin
         else
         {
             // wired metadata fields
-            liValues = this.searchWiredMetadata(maa.getMetadata(), stIdentifier);
+            liValues = this.getWiredMetadataValues(maa.getMetadata(), field.getName());
             if (liValues.size() == 0)
             {
                 this.setAllowCreation(false, INVALID_WIRED_METADATA_ERROR + stIdentifier);
@@ -395,6 +377,9 @@ public abstract class AssetFieldsPlugin extends BaseAssetFactoryPlugin
             this.setAllowCreation(false, MISSING_FIELD_ID_ERROR);
             throw new FatalPluginException(MISSING_FIELD_ID_ERROR);
         }
+        _fieldPlan = FieldIdentifierPlan.getPlan(_stIdentifiers);
+        _structuredDataIndex = null;
+        _dynamicMetadataIndex = null;
 
         // and we will always need some sort of space token
         _stSpaceToken = getParameter(SPACETOKEN_PARAM_NAME_KEY);
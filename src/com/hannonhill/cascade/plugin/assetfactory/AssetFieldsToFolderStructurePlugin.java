@@ -1,13 +1,7 @@
 package com.hannonhill.cascade.plugin.assetfactory;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Formatter;
-import java.util.GregorianCalendar;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -17,13 +11,22 @@ import com.cms.assetfactory.FatalPluginException;
 import com.cms.assetfactory.PluginException;
 import com.hannonhill.cascade.api.asset.admin.AssetFactory;
 import com.hannonhill.cascade.api.asset.common.BaseAsset;
+import com.hannonhill.cascade.api.asset.common.DynamicMetadataField;
 import com.hannonhill.cascade.api.asset.common.Identifier;
+import com.hannonhill.cascade.api.asset.common.Metadata;
 import com.hannonhill.cascade.api.asset.home.Folder;
 import com.hannonhill.cascade.api.asset.home.FolderContainedAsset;
 import com.hannonhill.cascade.api.asset.home.Page;
+import com.hannonhill.cascade.api.operation.Create;
 import com.hannonhill.cascade.api.operation.Read;
+import com.hannonhill.cascade.api.operation.exception.ModelOperationException;
+import com.hannonhill.cascade.api.operation.exception.OperationValidationException;
+import com.hannonhill.cascade.api.operation.result.CreateOperationResult;
 import com.hannonhill.cascade.api.operation.result.ReadOperationResult;
+import com.hannonhill.cascade.model.dom.identifier.EntityType;
 import com.hannonhill.cascade.model.dom.identifier.EntityTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * <p>Plug-in which accepts a comma-delimited list of metadata and/or structured data field identifiers and attempts to map
@@ -54,6 +57,9 @@ import com.hannonhill.cascade.model.dom.identifier.EntityTypes;
  * of the directory path is simply ignored.  For example if no "day" folders exist in the example above, the resulting asset path would
  * be: <code>/news/2011/12/awards</code> or <code>/news/2011/dec/awards</code>.  Likewise, if neither day nor month folders existed, the
  * resulting asset path would be: <code>/news/2011/awards</code>.</li>
+ * <li>With the "Create Date Folders" parameter set to true, missing year, month and day folders are created instead, so the
+ * asset in the example above would always be placed in <code>/news/2011/12/12/awards</code> (the category folder itself is
+ * never created).</li>
  * </ul>
  *
  * The expected format of the field identifier Strings is as follows:<br/><br/>
@@ -68,10 +74,31 @@ import com.hannonhill.cascade.model.dom.identifier.EntityTypes;
  */
 public final class AssetFieldsToFolderStructurePlugin extends AssetFieldsPlugin
 {
+    private static final Logger LOG = LoggerFactory.getLogger(AssetFieldsToFolderStructurePlugin.class);
+
     /** The resource bundle key for the name of the plugin */
     private static final String NAME_KEY = "plugin.assetfactory.assetfieldstofolderstructure.name";
     /** The resource bundle key for the description of the plugin */
     private static final String DESC_KEY = "plugin.assetfactory.assetfieldstofolderstructure.description";
+    /** The resource bundle key for the name of the Create Date Folders parameter */
+    private static final String CREATEDATEFOLDERS_PARAM_NAME_KEY = "plugin.assetfactory.assetfieldstofolderstructure.parameter.createdatefolders.name";
+    /** The resource bundle key for the description of the Create Date Folders parameter */
+    private static final String CREATEDATEFOLDERS_PARAM_DESC_KEY = "plugin.assetfactory.assetfieldstofolderstructure.parameter.createdatefolders.description";
+
+    /** Serializes the creation of date folders, striped by parent folder and folder name */
+    private static final Object[] DATE_FOLDER_LOCKS = new Object[64];
+    static
+    {
+        for (int i = 0; i < DATE_FOLDER_LOCKS.length; i++)
+        {
+            DATE_FOLDER_LOCKS[i] = new Object();
+        }
+    }
+
+    private boolean _boCreateDateFolders;
+
+    /** Whether findPlacementFolder() matched a folder for every field, down to the day folder of a date */
+    private boolean _boFullPathMatched;
 
     /**
      * @see com.cms.assetfactory.BaseAssetFactoryPlugin#doPluginActionPost(com.hannonhill.cascade.api.asset.admin.AssetFactory, com.hannonhill.cascade.api.asset.home.FolderContainedAsset)
@@ -85,21 +112,91 @@ public final class AssetFieldsToFolderStructurePlugin extends AssetFieldsPlugin
 
         Page page = (Page) asset;
 
+        String stCreateDateFolders = getParameter(CREATEDATEFOLDERS_PARAM_NAME_KEY);
+        _boCreateDateFolders = stCreateDateFolders != null && Boolean.parseBoolean(stCreateDateFolders.trim());
+
+        // the values of every field are needed to place the asset, so get them up front
+        List<List<String>> liFieldVals = new ArrayList<List<String>>();
+        for (FieldIdentifierPlan.Field field : _fieldPlan.getFields())
+        {
+            liFieldVals.add(getFieldValues(field, asset));
+        }
+
+        // creating assets with the same values in the same folder places them in the same folder, so first try
+        // the folder the last such asset was placed in
         Folder placementFolder = asset.getParentFolder();
-        if (placementFolder == null)
+        String placementFolderId = placementFolder != null ? placementFolder.getIdentifer().getId() : asset.getParentFolderIdentifier().getId();
+        String cacheKey = placementFolderId != null ? PlacementCache.createPathKey(placementFolderId, liFieldVals, _boCreateDateFolders) : null;
+        Folder cachedFolder = null;
+        if (cacheKey != null)
         {
-            placementFolder = (Folder) this.readAssetForIdentifier(asset.getParentFolderIdentifier());
+            String cachedFolderId = PlacementCache.getPathCache().get(cacheKey);
+            if (cachedFolderId != null)
+            {
+                cachedFolder = this.readCachedFolder(cachedFolderId);
+                // the folder has been deleted since, so walk the folder structure again
+                if (cachedFolder == null)
+                    PlacementCache.getPathCache().remove(cacheKey);
+            }
+        }
+
+        if (cachedFolder != null)
+        {
+            placementFolder = cachedFolder;
+        }
+        else
+        {
+            if (placementFolder == null)
+            {
+                placementFolder = (Folder) this.readAssetForIdentifier(asset.getParentFolderIdentifier());
+            }
+
+            if (placementFolder != null)
+            {
+                placementFolder = this.findPlacementFolder(placementFolder, liFieldVals);
+                // a folder short of the full path may be joined by the missing folders at any time, so only a
+                // full match is remembered
+                if (cacheKey != null && _boFullPathMatched)
+                    PlacementCache.getPathCache().put(cacheKey, placementFolder.getIdentifer().getId());
+                else if (cacheKey != null)
+                    PlacementCache.getPathCache().remove(cacheKey);
+            }
+        }
+
+        if (placementFolder != null)
+        {
+            page.setParentFolder(placementFolder);
+            page.setParentFolderIdentifier(placementFolder.getIdentifer());
+        }
+        else
+        {
+            page.setName("no-matching-folder");
         }
 
-        List<String> liIdentifiers = Arrays.asList(_stIdentifiers.split(","));
-        Iterator<String> itIds = liIdentifiers.iterator();
+        this.setAllowCreation(true, "");
+    }
 
-        // iterate through specified fields & use derived values to build name string
-        // if any of the specified fields contain null or empty values, throw exception & forbid asset creation
-        while (itIds.hasNext())
+    /**
+     * Walks down the folder structure from the placement folder, descending into the child folder matching each
+     * field in turn. A field whose values match no child folder is skipped.
+     *
+     * @param placementFolder the folder to start in
+     * @param liFieldVals the values of each field identifier, in order
+     * @return the deepest folder reached
+     */
+    private Folder findPlacementFolder(Folder placementFolder, List<List<String>> liFieldVals) throws PluginException
+    {
+        _boFullPathMatched = true;
+        Iterator<List<String>> itFieldVals = liFieldVals.iterator();
+        // the child folders of every folder looked at while placing this asset, by folder id
+        Map<String, FolderChildIndex> childIndexes = new HashMap<String, FolderChildIndex>();
+
+        // iterate through specified fields & use their values to descend into the folder structure
+        while (itFieldVals.hasNext())
         {
-            List<String> liNodeVals = getFieldValues(itIds.next(), asset);
-            Iterator<String> itVals = liNodeVals.iterator();
+            List<String> liVals = itFieldVals.next();
+            Iterator<String> itVals = liVals.iterator();
+            boolean boMatched = false;
 
             while (itVals.hasNext())
             {
@@ -111,122 +208,277 @@ public final class AssetFieldsToFolderStructurePlugin extends AssetFieldsPlugin
                 // dates are a special case here -- rather than looking for single child folder matching a
                 // full date value, we want to break down the date into its various components -- year, month, day, etc. -- and
                 // look for nested folder structure matching the date values.
-                DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                try
+                DateComponents date = DateComponents.parse(val);
+                if (date != null)
                 {
-                    Iterator<FolderContainedAsset> itChildren = placementFolder.getChildren().iterator();
-                    Date date = dateFormat.parse(val);
-                    Calendar cal = new GregorianCalendar();
-                    cal.setTime(date);
-                    Formatter formatter = new Formatter();
-
-                    // if the value is a date, we first want to check the child folder structure for a folder matching the year
-                    String stYear = formatter.format("%tY", cal).toString();
-                    formatter.close();
-                    
-                    boolean boFoundYearFolder = false;
-                    while (itChildren.hasNext())
+                    // assets of the same day are usually placed in the same year/month/day folders, so first try the
+                    // folder the date resolved to last time
+                    String dateKey = PlacementCache.createDateKey(placementFolder.getIdentifer().getId(), date, _boCreateDateFolders);
+                    String cachedFolderId = PlacementCache.getDateCache().get(dateKey);
+                    if (cachedFolderId != null)
                     {
-                        FolderContainedAsset child = itChildren.next();
-                        if (child.getIdentifer().getType().equals(EntityTypes.TYPE_FOLDER) && child.getName().equals(stYear))
-                        {
-                            // we have a match, set our match folder to this asset
-                            match = (Folder) child;
-                            boFoundYearFolder = true;
-                        }
+                        match = this.readCachedFolder(cachedFolderId);
+                        if (match == null)
+                            PlacementCache.getDateCache().remove(dateKey);
                     }
 
-                    boolean boFoundMonthFolder = false;
-                    // if we matched a year folder, then see if we match the month with a child folder of the year folder
-                    if (boFoundYearFolder)
+                    if (match == null)
                     {
-                        formatter = new Formatter();
-                        String stMonth1 = formatter.format("%tB", cal).toString();
-                        formatter.close();
-                        
-                        formatter = new Formatter();
-                        String stMonth2 = formatter.format("%tb", cal).toString();
-                        formatter.close();
-                        
-                        formatter = new Formatter();
-                        String stMonth3 = formatter.format("%tm", cal).toString();                        
-                        formatter.close();
-
-                        Iterator<FolderContainedAsset> itYearChildren = match.getChildren().iterator();
-
-                        while (itYearChildren.hasNext())
+                        Folder[] dateFolders = this.findDateFolders(placementFolder, date, childIndexes);
+                        boolean boDayMatched = true;
+                        if (_boCreateDateFolders && dateFolders[2] == null)
                         {
-                            FolderContainedAsset child = itYearChildren.next();
-                            if (child.getIdentifer().getType().equals(EntityTypes.TYPE_FOLDER)
-                                    && (child.getName().equalsIgnoreCase(stMonth1) || child.getName().equalsIgnoreCase(stMonth2) || child.getName()
-                                            .equalsIgnoreCase(stMonth3)))
-                            {
-                                // we have a match, set our match folder to this asset
-                                match = (Folder) child;
-                                boFoundMonthFolder = true;
-                            }
+                            match = this.createDateFolders(placementFolder, date);
+                        }
+                        else
+                        {
+                            match = dateFolders[2] != null ? dateFolders[2] : dateFolders[1] != null ? dateFolders[1] : dateFolders[0];
+                            boDayMatched = dateFolders[2] != null;
                         }
-                    }
-
-                    // and... if we find a month folder, see if they actually have day folders (crazy...)
-                    if (boFoundMonthFolder)
-                    {
-                        formatter = new Formatter();
-                        String stDay1 = formatter.format("%td", cal).toString();
-                        formatter.close();
-                        
-                        formatter = new Formatter();
-                        String stDay2 = formatter.format("%te", cal).toString();                        
-                        formatter.close();
-
-                        Iterator<FolderContainedAsset> itMonthChildren = match.getChildren().iterator();
 
-                        while (itMonthChildren.hasNext())
+                        // a year or month folder may get the missing day folder at any time, so it is not
+                        // remembered, and neither is the placement it ends in
+                        if (match != null && boDayMatched)
                         {
-                            FolderContainedAsset child = itMonthChildren.next();
-                            if (child.getIdentifer().getType().equals(EntityTypes.TYPE_FOLDER)
-                                    && (child.getName().equalsIgnoreCase(stDay1) || child.getName().equalsIgnoreCase(stDay2)))
-                            {
-                                // we have a match, set our match folder to this asset
-                                match = (Folder) child;
-                            }
+                            PlacementCache.getDateCache().put(dateKey, match.getIdentifer().getId());
                         }
-                    }                                       
-                }
-                catch (ParseException pe)
-                {
-                    // just try to match val to a child folder as normal
-                    Iterator<FolderContainedAsset> itChildren = placementFolder.getChildren().iterator();
-                    while (itChildren.hasNext())
-                    {
-                        FolderContainedAsset child = itChildren.next();
-                        if (child.getIdentifer().getType().equals(EntityTypes.TYPE_FOLDER) && child.getName().equalsIgnoreCase(val))
+                        else
                         {
-                            // we have a match, set our match folder to this asset
-                            match = (Folder) child;
+                            PlacementCache.getDateCache().remove(dateKey);
+                            if (match != null)
+                                _boFullPathMatched = false;
                         }
                     }
                 }
+                else
+                {
+                    // just try to match val to a child folder as normal
+                    match = getChildIndex(placementFolder, childIndexes).get(val);
+                }
 
                 if (match != null)
                 {
                     // reset the placementFolder to the current matching folder & move to the next level
                     placementFolder = match;
+                    boMatched = true;
                     break; // once we find a matching value for this field ID, move on to the next field
                 }
             }
+
+            if (!boMatched && !liVals.isEmpty())
+                _boFullPathMatched = false;
         }
-        if (placementFolder != null)
+        return placementFolder;
+    }
+
+    /**
+     * Looks for the year folder of the date in the folder, the month folder in the year folder and the day folder
+     * in the month folder.
+     *
+     * @param folder the folder to look for the year folder in
+     * @param date the date
+     * @param childIndexes the indexes of the child folders built so far, by folder id
+     * @return the year, month and day folders; the levels that were not found are null
+     */
+    private Folder[] findDateFolders(Folder folder, DateComponents date, Map<String, FolderChildIndex> childIndexes)
+    {
+        Folder[] dateFolders = new Folder[3];
+
+        // if the value is a date, we first want to check the child folder structure for a folder matching the year
+        dateFolders[0] = getChildIndex(folder, childIndexes).get(date.getYear());
+
+        // if we matched a year folder, then see if we match the month with a child folder of the year folder
+        if (dateFolders[0] != null)
+            dateFolders[1] = getChildIndex(dateFolders[0], childIndexes).getAny(date.getMonthName(), date.getMonthAbbreviation(), date.getMonthNumber());
+
+        // and... if we find a month folder, see if they actually have day folders (crazy...)
+        if (dateFolders[1] != null)
+            dateFolders[2] = getChildIndex(dateFolders[1], childIndexes).getAny(date.getDay(), date.getDayUnpadded());
+
+        return dateFolders;
+    }
+
+    /**
+     * Creates whichever of the year, month and day folders of the date are missing in the folder, named e.g.
+     * "2011", "12" and "05".
+     *
+     * @param folder the folder to create the year folder in
+     * @param date the date
+     * @return the day folder
+     * @throws PluginException if a folder could not be created
+     */
+    private Folder createDateFolders(Folder folder, DateComponents date) throws PluginException
+    {
+        Folder yearFolder = this.getOrCreateFolder(folder, date.getYear(), date.getYear());
+        Folder monthFolder = this.getOrCreateFolder(yearFolder, date.getMonthNumber(), date.getMonthName(), date.getMonthAbbreviation(),
+                date.getMonthNumber());
+        return this.getOrCreateFolder(monthFolder, date.getDay(), date.getDay(), date.getDayUnpadded());
+    }
+
+    /**
+     * Gets the child folder of the parent with any of the names, creating it if there is none. Creations of the
+     * same child folder are serialized and the parent is read again once the lock is held, so assets placed at
+     * the same time, e.g. on 2011-12-05 and 2011-12-06, share the year and month folders instead of both
+     * creating them. If the folder is created elsewhere in the meantime anyway, e.g. by another server, the
+     * create fails and the folder created elsewhere is used.
+     *
+     * @param parent the folder to look for the child folder in
+     * @param name the name to create the child folder with
+     * @param names the names the child folder may already have
+     * @return the child folder
+     * @throws PluginException if the child folder could not be found or created
+     */
+    private Folder getOrCreateFolder(Folder parent, String name, String... names) throws PluginException
+    {
+        String parentId = parent.getIdentifer().getId();
+        String path = parentId + "/" + name;
+        synchronized (DATE_FOLDER_LOCKS[(path.hashCode() & Integer.MAX_VALUE) % DATE_FOLDER_LOCKS.length])
         {
-            page.setParentFolder(placementFolder);
-            page.setParentFolderIdentifier(placementFolder.getIdentifer());
+            // the folder's children may have changed since they were indexed
+            Folder current = this.readCachedFolder(parentId);
+            if (current == null)
+                current = parent;
+
+            Folder child = new FolderChildIndex(current).getAny(names);
+            if (child != null)
+                return child;
+
+            try
+            {
+                return this.createFolder(current, name);
+            }
+            catch (ModelOperationException | OperationValidationException e)
+            {
+                // most likely created elsewhere since the folder was read
+                current = this.readCachedFolder(parentId);
+                child = current != null ? new FolderChildIndex(current).getAny(names) : null;
+                if (child != null)
+                    return child;
+
+                String message = "Unable to create the folder " + name + ": " + e.getMessage();
+                this.setAllowCreation(false, message);
+                throw new FatalPluginException(message, e);
+            }
         }
-        else
+    }
+
+    /**
+     * Creates a folder in the parent folder. The API can only build a new folder as a copy of an existing one, so
+     * it starts as a copy of the parent and keeps its metadata set; everything else the parent has is reset. The
+     * display name and title are set to the name of the new folder, the other wired and the dynamic metadata
+     * fields are cleared, and the folder is included when publishing and indexing with its system name shown.
+     *
+     * @param parent the folder to create the new folder in
+     * @param name the name of the new folder
+     * @return the new folder
+     * @throws ModelOperationException if the folder could not be created, e.g. because the name is taken
+     * @throws OperationValidationException if the folder could not be created
+     * @throws PluginException if the folder could not be built or read once created
+     */
+    private Folder createFolder(Folder parent, String name) throws ModelOperationException, OperationValidationException, PluginException
+    {
+        Folder folder;
+        try
         {
-            page.setName("no-matching-folder");
+            folder = (Folder) Create.newAPIAsset(parent);
+        }
+        catch (Exception e)
+        {
+            throw new PluginException("Unable to build the folder " + name + ": " + e.getMessage(), e);
         }
+        folder.setName(name);
+        folder.setParentFolder(parent);
+        folder.setParentFolderIdentifier(parent.getIdentifer());
 
-        this.setAllowCreation(true, "");
+        Metadata metadata = folder.getMetadata();
+        if (metadata != null)
+        {
+            metadata.setDisplayName(name);
+            metadata.setTitle(name);
+            metadata.setAuthor(null);
+            metadata.setKeywords(null);
+            metadata.setDescription(null);
+            metadata.setSummary(null);
+            metadata.setTeaser(null);
+            metadata.setStartDate(null);
+            metadata.setEndDate(null);
+            metadata.setReviewDate(null);
+
+            DynamicMetadataField[] dynamicFields = metadata.getDynamicFields();
+            if (dynamicFields != null)
+            {
+                for (DynamicMetadataField field : dynamicFields)
+                    field.setValues(Collections.<String> emptyList());
+            }
+        }
+        folder.setIncludeWhenPublishing(true);
+        folder.setIncludeWhenIndexing(true);
+        folder.setHideSystemName(false);
+
+        Create create = new Create();
+        create.setUsername(getUsername());
+        create.setAsset(folder);
+        create.setInstantiateWorkflow(false);
+        create.setCreateNewInstance(true);
+        CreateOperationResult result = (CreateOperationResult) create.perform();
+
+        Folder created = this.readCachedFolder(result.getCreatedAssetId());
+        if (created == null)
+            throw new PluginException("Unable to read the new folder " + name);
+        return created;
+    }
+
+    /**
+     * Reads a folder the placement cache resolved to.
+     *
+     * @param folderId the id of the folder
+     * @return the folder, or null if it could not be read, e.g. because it has been deleted
+     */
+    private Folder readCachedFolder(final String folderId)
+    {
+        Read read = new Read();
+        read.setToRead(new Identifier()
+        {
+            public String getId()
+            {
+                return folderId;
+            }
+
+            public EntityType getType()
+            {
+                return EntityTypes.TYPE_FOLDER;
+            }
+        });
+        read.setUsername(getUsername());
+        try
+        {
+            ReadOperationResult result = (ReadOperationResult) read.perform();
+            BaseAsset folder = result.getAsset();
+            return folder instanceof Folder ? (Folder) folder : null;
+        }
+        catch (ModelOperationException | OperationValidationException e)
+        {
+            LOG.debug("Unable to read folder " + folderId, e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the index of the folder's child folders, indexing them the first time the folder is looked at.
+     *
+     * @param folder the folder
+     * @param childIndexes the indexes built so far, by folder id
+     * @return the index of the folder's child folders
+     */
+    private FolderChildIndex getChildIndex(Folder folder, Map<String, FolderChildIndex> childIndexes)
+    {
+        FolderChildIndex index = childIndexes.get(folder.getIdentifer().getId());
+        if (index == null)
+        {
+            index = new FolderChildIndex(folder);
+            childIndexes.put(folder.getIdentifer().getId(), index);
+        }
+        return index;
     }
 
     /**
@@ -247,7 +499,7 @@ public final class AssetFieldsToFolderStructurePlugin extends AssetFieldsPlugin
             ReadOperationResult result = (ReadOperationResult) read.perform();
             asset = result.getAsset();
         }
-        catch (Exception e)
+        catch (ModelOperationException | OperationValidationException e)
         {
             this.setAllowCreation(false, e.getMessage());
             throw new FatalPluginException(e.getMessage());
@@ -277,6 +529,7 @@ public final class AssetFieldsToFolderStructurePlugin extends AssetFieldsPlugin
         Map<String, String> paramDescriptionMap = new HashMap<String, String>();
         paramDescriptionMap.put(FIELDIDS_PARAM_NAME_KEY, FIELDIDS_PARAM_DESC_KEY);
         paramDescriptionMap.put(SPACETOKEN_PARAM_NAME_KEY, SPACETOKEN_PARAM_DESC_KEY);
+        paramDescriptionMap.put(CREATEDATEFOLDERS_PARAM_NAME_KEY, CREATEDATEFOLDERS_PARAM_DESC_KEY);
         return paramDescriptionMap;
     }
 
@@ -289,7 +542,7 @@ public final class AssetFieldsToFolderStructurePlugin extends AssetFieldsPlugin
         //the parameters for the plugin
         return new String[]
         {
-                FIELDIDS_PARAM_NAME_KEY, SPACETOKEN_PARAM_NAME_KEY
+                FIELDIDS_PARAM_NAME_KEY, SPACETOKEN_PARAM_NAME_KEY, CREATEDATEFOLDERS_PARAM_NAME_KEY
         };
     }
 
@@ -1,7 +1,6 @@
 package com.hannonhill.cascade.plugin.assetfactory;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -10,8 +9,14 @@ import java.util.Map;
 import com.cms.assetfactory.FatalPluginException;
 import com.cms.assetfactory.PluginException;
 import com.hannonhill.cascade.api.asset.admin.AssetFactory;
+import com.hannonhill.cascade.api.asset.common.BaseAsset;
+import com.hannonhill.cascade.api.asset.home.Folder;
 import com.hannonhill.cascade.api.asset.home.FolderContainedAsset;
 import com.hannonhill.cascade.api.asset.home.Page;
+import com.hannonhill.cascade.api.operation.Read;
+import com.hannonhill.cascade.api.operation.result.ReadOperationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Plug-in which accepts a comma-delimited list of metadata and/or structured data field identifiers and constructs a
@@ -24,12 +29,19 @@ import com.hannonhill.cascade.api.asset.home.Page;
  *
  * Dynamic Metadata fields:  [dynamic-metadata/field-name]  e.g. dynamic-metadata/my-custom-field1,dynamic-metadata/my-custom-field2<br/><br/>
  *
- * Structured Data (Data Definition) fields:  [system-data-structure/{group-name}/field-name]  e.g. system-data-structure/my-group/my-field,system-data-structure/my-ungrouped-field
+ * Structured Data (Data Definition) fields:  [system-data-structure/{group-name}/field-name]  e.g. system-data-structure/my-group/my-field,system-data-structure/my-ungrouped-field<br/><br/>
+ *
+ * If another asset in the folder already has the generated name, ignoring case, the concatenation token and a counter
+ * are appended to it, e.g. my-page-2. Only the folder the asset is in when this plug-in runs is checked, not a folder it
+ * is moved to afterwards. If a Maximum Length is given, longer names are cut back to the last space or
+ * concatenation token that fits, and the counter is kept within it too.
  *
  * @author Brent Arrington
  */
 public final class AssetFieldsToSystemNamePlugin extends AssetFieldsPlugin
 {
+    private static final Logger LOG = LoggerFactory.getLogger(AssetFieldsToSystemNamePlugin.class);
+
     /** The resource bundle key for the name of the plugin */
     private static final String NAME_KEY = "plugin.assetfactory.assetfieldstosystemname.name";
     /** The resource bundle key for the description of the plugin */
@@ -39,7 +51,16 @@ public final class AssetFieldsToSystemNamePlugin extends AssetFieldsPlugin
     /** The resource bundle key for the description of the Space Token parameter */
     private static final String CONCATTOKEN_PARAM_DESC_KEY = "plugin.assetfactory.assetfieldstosystemname.parameter.concattoken.description";
 
+    /** The resource bundle key for the name of the Maximum Length parameter */
+    private static final String MAXLENGTH_PARAM_NAME_KEY = "plugin.assetfactory.assetfieldstosystemname.parameter.maxlength.name";
+    /** The resource bundle key for the description of the Maximum Length parameter */
+    private static final String MAXLENGTH_PARAM_DESC_KEY = "plugin.assetfactory.assetfieldstosystemname.parameter.maxlength.description";
+
+    /** No characters are allowed beyond the ones the normalizer allows anyway */
+    private static final List<Character> NO_ADDITIONAL_ALLOWED_CHARS = Collections.emptyList();
+
     private String _stConcatToken;
+    private final SystemNameBuilder _nameBuilder = new SystemNameBuilder();
 
     /**
      * @see com.cms.assetfactory.BaseAssetFactoryPlugin#doPluginActionPost(com.hannonhill.cascade.api.asset.admin.AssetFactory, com.hannonhill.cascade.api.asset.home.FolderContainedAsset)
@@ -60,10 +81,10 @@ public final class AssetFieldsToSystemNamePlugin extends AssetFieldsPlugin
             _stConcatToken = "-";
         }
 
-        StringBuilder newName = new StringBuilder();
+        int maxLength = getMaxLength();
+        _nameBuilder.reset(_stSpaceToken, _stConcatToken, maxLength);
 
-        List<String> liIdentifiers = Arrays.asList(_stIdentifiers.split(","));
-        Iterator<String> itIds = liIdentifiers.iterator();
+        Iterator<FieldIdentifierPlan.Field> itIds = _fieldPlan.getFields().iterator();
 
         // iterate through specified fields & use derived values to build name string
         // if any of the specified fields contain null or empty values, throw exception & forbid asset creation
@@ -75,27 +96,21 @@ public final class AssetFieldsToSystemNamePlugin extends AssetFieldsPlugin
 
             while (itVals.hasNext())
             {
-                String stVal = itVals.next();
-
-                // normalize for URL-safe system name
-                stVal = this.utilityProvider.getFilenameNormalizer().normalize(stVal, new ArrayList<Character>());
-
-                // replace spaces with space token
-                stVal = stVal.trim().replace(" ", _stSpaceToken).toLowerCase();
-
-                newName.append(stVal);
+                // normalize for URL-safe system name, then trim, replace spaces with space token & lower case
+                // while appending
+                _nameBuilder.appendValue(this.utilityProvider.getFilenameNormalizer().normalize(itVals.next(), NO_ADDITIONAL_ALLOWED_CHARS));
 
                 // append concat token for multiple values
                 if (itVals.hasNext())
-                    newName.append(_stConcatToken);
+                    _nameBuilder.appendConcatToken();
             }
 
             // append concatenation token, if necessary
             if (itIds.hasNext())
-                newName.append(_stConcatToken);
+                _nameBuilder.appendConcatToken();
         }
 
-        String stNewName = newName.toString();
+        String stNewName = _nameBuilder.toString();
 
         if (stNewName == null || stNewName.trim().equals(""))
         {
@@ -103,12 +118,73 @@ public final class AssetFieldsToSystemNamePlugin extends AssetFieldsPlugin
             throw new FatalPluginException(EMPTY_IDENTIFIER_ERROR + _stIdentifiers);
         }
 
+        // make sure no sibling already has the name, which would fail the create later on
+        Folder parentFolder = this.getParentFolder(page);
+        stNewName = SiblingNameIndex.getIndex(parentFolder).claim(parentFolder, stNewName, _stConcatToken, maxLength);
+
         // if all is well, update the asset's system name & allow creation of the asset
         page.setName(stNewName);
 
         this.setAllowCreation(true, "");
     }
 
+    /**
+     * @return the configured maximum length of the system name, or 0 if there is no limit
+     * @throws PluginException if the configured value is not a positive integer
+     */
+    private int getMaxLength() throws PluginException
+    {
+        String stMaxLength = getParameter(MAXLENGTH_PARAM_NAME_KEY);
+        if (stMaxLength == null || stMaxLength.trim().equals(""))
+            return 0;
+
+        try
+        {
+            int maxLength = Integer.parseInt(stMaxLength.trim());
+            if (maxLength < 1)
+            {
+                throw new NumberFormatException("The value must be positive.");
+            }
+            return maxLength;
+        }
+        catch (NumberFormatException e)
+        {
+            throw new PluginException("AssetFieldsToSystemNamePlugin parameter maximum length is malformed. Must be an integer: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the folder the asset is being created in, reading it if the asset only has its identifier.
+     *
+     * @param asset the asset being created
+     * @return the folder
+     * @throws PluginException if the folder could not be read, since the name could not be made unique without it
+     */
+    private Folder getParentFolder(FolderContainedAsset asset) throws PluginException
+    {
+        if (asset.getParentFolder() != null)
+            return asset.getParentFolder();
+
+        Read read = new Read();
+        read.setToRead(asset.getParentFolderIdentifier());
+        read.setUsername(getUsername());
+        BaseAsset folder;
+        try
+        {
+            ReadOperationResult result = (ReadOperationResult) read.perform();
+            folder = result.getAsset();
+        }
+        catch (Exception e)
+        {
+            LOG.error("Unable to read the parent folder of " + asset.getName(), e);
+            throw new PluginException("Unable to read the parent folder to make the system name unique: " + e.getMessage(), e);
+        }
+
+        if (!(folder instanceof Folder))
+            throw new PluginException("Unable to read the parent folder to make the system name unique");
+        return (Folder) folder;
+    }
+
     /**
      * @see com.cms.assetfactory.BaseAssetFactoryPlugin#doPluginActionPre(com.hannonhill.cascade.api.asset.admin.AssetFactory, com.hannonhill.cascade.api.asset.home.FolderContainedAsset)
      */
@@ -137,6 +213,7 @@ public final class AssetFieldsToSystemNamePlugin extends AssetFieldsPlugin
         paramDescriptionMap.put(FIELDIDS_PARAM_NAME_KEY, FIELDIDS_PARAM_DESC_KEY);
         paramDescriptionMap.put(SPACETOKEN_PARAM_NAME_KEY, SPACETOKEN_PARAM_DESC_KEY);
         paramDescriptionMap.put(CONCATTOKEN_PARAM_NAME_KEY, CONCATTOKEN_PARAM_DESC_KEY);
+        paramDescriptionMap.put(MAXLENGTH_PARAM_NAME_KEY, MAXLENGTH_PARAM_DESC_KEY);
         return paramDescriptionMap;
     }
 
@@ -149,7 +226,7 @@ public final class AssetFieldsToSystemNamePlugin extends AssetFieldsPlugin
         //the parameters for the plugin
         return new String[]
         {
-                FIELDIDS_PARAM_NAME_KEY, SPACETOKEN_PARAM_NAME_KEY, CONCATTOKEN_PARAM_NAME_KEY
+                FIELDIDS_PARAM_NAME_KEY, SPACETOKEN_PARAM_NAME_KEY, CONCATTOKEN_PARAM_NAME_KEY, MAXLENGTH_PARAM_NAME_KEY
         };
     }
 
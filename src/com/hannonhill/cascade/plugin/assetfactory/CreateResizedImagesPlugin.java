@@ -3,12 +3,40 @@ package com.hannonhill.cascade.plugin.assetfactory;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.ImageOutputStreamImpl;
 
 import org.imgscalr.Scalr;
 import org.imgscalr.Scalr.Method;
@@ -19,7 +47,8 @@ import com.cms.assetfactory.FatalPluginException;
 import com.cms.assetfactory.PluginException;
 import com.hannonhill.cascade.api.asset.admin.AssetFactory;
 import com.hannonhill.cascade.api.asset.admin.User;
-import com.hannonhill.cascade.api.asset.common.Identifier;
+import com.hannonhill.cascade.api.asset.common.Path;
+import com.hannonhill.cascade.api.asset.common.PathIdentifier;
 import com.hannonhill.cascade.api.asset.home.File;
 import com.hannonhill.cascade.api.asset.home.Folder;
 import com.hannonhill.cascade.api.asset.home.FolderContainedAsset;
@@ -59,6 +88,318 @@ public class CreateResizedImagesPlugin extends BaseAssetFactoryPlugin
     private static final String PARAM_HEIGHTS_NAME_KEY = "plugin.assetfactory.createresizedimages.param.height.name";
     private static final String PARAM_HEIGHTS_DESCRIPTION_KEY = "plugin.assetfactory.createresizedimages.param.height.description";
 
+    /** The maximum number of resized images rendered at the same time; empty or 1 renders them one at a time */
+    private static final String PARAM_POOL_SIZE_NAME_KEY = "plugin.assetfactory.createresizedimages.param.poolsize.name";
+    private static final String PARAM_POOL_SIZE_DESCRIPTION_KEY = "plugin.assetfactory.createresizedimages.param.poolsize.description";
+
+    /**
+     * When set, smaller images are resized from an already resized larger copy instead of the original. A copy is
+     * only used as the source when it is at least this many times larger than the new image in both directions.
+     */
+    private static final String PARAM_CASCADE_RATIO_NAME_KEY = "plugin.assetfactory.createresizedimages.param.cascaderatio.name";
+    private static final String PARAM_CASCADE_RATIO_DESCRIPTION_KEY = "plugin.assetfactory.createresizedimages.param.cascaderatio.description";
+
+    /** The maximum size, in megabytes, of the on-disk cache of resized images; empty or 0 disables the cache */
+    private static final String PARAM_CACHE_SIZE_NAME_KEY = "plugin.assetfactory.createresizedimages.param.cachesize.name";
+    private static final String PARAM_CACHE_SIZE_DESCRIPTION_KEY = "plugin.assetfactory.createresizedimages.param.cachesize.description";
+
+    /** The largest cache size that may be configured, in megabytes */
+    private static final long MAX_CACHE_SIZE = 1024 * 1024;
+
+    /**
+     * Comma delimited list of the resize method of each new image: SPEED, BALANCED, QUALITY, ULTRA_QUALITY or
+     * AUTOMATIC. Empty values use ULTRA_QUALITY.
+     */
+    private static final String PARAM_METHODS_NAME_KEY = "plugin.assetfactory.createresizedimages.param.methods.name";
+    private static final String PARAM_METHODS_DESCRIPTION_KEY = "plugin.assetfactory.createresizedimages.param.methods.description";
+
+    /** Comma delimited list of the JPEG quality (1-100) of each new image. Empty values use the encoder default. */
+    private static final String PARAM_JPEG_QUALITIES_NAME_KEY = "plugin.assetfactory.createresizedimages.param.jpegqualities.name";
+    private static final String PARAM_JPEG_QUALITIES_DESCRIPTION_KEY = "plugin.assetfactory.createresizedimages.param.jpegqualities.description";
+
+    /** Images up to this many pixels on their longest side are thumbnails to the AUTOMATIC resize method */
+    private static final int AUTOMATIC_THUMBNAIL_SIZE = 300;
+
+    /**
+     * When true, the resized copies are created by a background job and the create request returns without
+     * waiting for them
+     */
+    private static final String PARAM_ASYNC_NAME_KEY = "plugin.assetfactory.createresizedimages.param.async.name";
+    private static final String PARAM_ASYNC_DESCRIPTION_KEY = "plugin.assetfactory.createresizedimages.param.async.description";
+
+    /** The number of times a background job tries to create each resized copy */
+    private static final int ASYNC_CREATE_ATTEMPTS = 3;
+
+    /** The wait before a background job retries a failed create, in milliseconds; doubled after every retry */
+    private static final long ASYNC_CREATE_RETRY_DELAY = 1000;
+
+    /** How long a background job waits for the original file to be created, in milliseconds */
+    private static final long ORIGINAL_WAIT = 60 * 1000;
+
+    /** The wait between two looks for the original file, in milliseconds */
+    private static final long ORIGINAL_POLL_DELAY = 1000;
+
+    /** How many times the size of the largest new image a subsampled decode of the original must still be */
+    private static final int SUBSAMPLING_MARGIN = 2;
+
+    /** Numbers the render worker threads so they can be told apart in thread dumps */
+    private static final AtomicInteger WORKER_COUNT = new AtomicInteger();
+
+    /** The most images rendered at the same time across every upload in the JVM */
+    private static final int RENDER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** How long an idle render worker thread is kept, in seconds */
+    private static final long RENDER_THREAD_KEEP_ALIVE = 60;
+
+    /**
+     * The render worker threads shared by every upload, so concurrent uploads together never render more than
+     * RENDER_THREADS images at once. Idle threads time out, so an idle plugin does not hold on to any.
+     */
+    private static final ThreadPoolExecutor RENDER_EXECUTOR;
+    static
+    {
+        RENDER_EXECUTOR = new ThreadPoolExecutor(RENDER_THREADS, RENDER_THREADS, RENDER_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "CreateResizedImagesPlugin-worker-" + WORKER_COUNT.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        RENDER_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /** The size of each chunk an encoded image is written to */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** The most chunks kept around for reuse between encodes, so the pool never pins more than 1MB of the heap */
+    private static final int MAX_POOLED_CHUNKS = 16;
+
+    /** Chunks waiting to be borrowed by the next encode */
+    private static final BlockingQueue<byte[]> CHUNK_POOL = new ArrayBlockingQueue<byte[]>(MAX_POOLED_CHUNKS);
+
+    /** Bytes of chunks borrowed from CHUNK_POOL instead of allocated since startup */
+    private static final AtomicLong REUSED_BUFFER_BYTES = new AtomicLong();
+
+    /** Bytes of chunks allocated because CHUNK_POOL was empty since startup */
+    private static final AtomicLong ALLOCATED_BUFFER_BYTES = new AtomicLong();
+
+    /**
+     * Runs at most a given number of tasks at the same time on a shared executor, so one upload cannot take up
+     * every render worker thread.
+     */
+    private static final class LimitedExecutor implements Executor
+    {
+        private final Executor executor;
+        private final int limit;
+        private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicInteger running = new AtomicInteger();
+
+        private LimitedExecutor(Executor executor, int limit)
+        {
+            this.executor = executor;
+            this.limit = limit;
+        }
+
+        public void execute(Runnable command)
+        {
+            waiting.add(command);
+            startWaiting();
+        }
+
+        /**
+         * Hands waiting tasks to the shared executor while fewer than limit of them are running.
+         */
+        private void startWaiting()
+        {
+            while (!waiting.isEmpty())
+            {
+                int current = running.get();
+                if (current >= limit)
+                    return;
+                if (!running.compareAndSet(current, current + 1))
+                    continue;
+
+                final Runnable command = waiting.poll();
+                if (command == null)
+                {
+                    running.decrementAndGet();
+                    continue;
+                }
+
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            command.run();
+                        }
+                        finally
+                        {
+                            running.decrementAndGet();
+                            startWaiting();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Everything needed to create the resized copies of one file, captured on the request thread so the work can
+     * also be done in the background.
+     */
+    private static final class ResizeJob
+    {
+        private File file;
+        private byte[] originalData;
+        private FileExtension ext;
+        private int numAdditionalImages;
+        private String[] widths;
+        private String[] heights;
+        private String extension;
+        private Method[] methods;
+        private float[] jpegQualities;
+        private int poolSize;
+        private double cascadeRatio;
+        private ResizedImageCache cache;
+        private String username;
+        private int maxAttempts;
+        /** The folder the original is created in, when a background job has to wait for the original */
+        private PathIdentifier originalFolder;
+        /** The id of an asset that already had the original's name when the job was queued, if any */
+        private String existingOriginalId;
+    }
+
+    /**
+     * An ImageOutputStream the encoders write to directly, keeping the bytes in CHUNK_SIZE chunks borrowed from
+     * CHUNK_POOL. Nothing has to grow or be cached on the way, as it would with ImageIO's stream over a
+     * ByteArrayOutputStream, and once the image is encoded its bytes are written once into an array of exactly
+     * the encoded size. The chunks must be handed back with release() once the array has been taken.
+     */
+    private static final class ImageOutputBuffer extends ImageOutputStreamImpl
+    {
+        private final List<byte[]> chunks = new ArrayList<byte[]>();
+        private long length;
+        /** Bytes of chunks borrowed from CHUNK_POOL */
+        private long reused;
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            flushBits();
+            getChunk(streamPos)[(int) (streamPos % CHUNK_SIZE)] = (byte) b;
+            streamPos++;
+            length = Math.max(length, streamPos);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            flushBits();
+            while (len > 0)
+            {
+                int offset = (int) (streamPos % CHUNK_SIZE);
+                int n = Math.min(len, CHUNK_SIZE - offset);
+                System.arraycopy(b, off, getChunk(streamPos), offset, n);
+                streamPos += n;
+                off += n;
+                len -= n;
+            }
+            length = Math.max(length, streamPos);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= length)
+                return -1;
+
+            int b = chunks.get((int) (streamPos / CHUNK_SIZE))[(int) (streamPos % CHUNK_SIZE)] & 0xff;
+            streamPos++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            checkClosed();
+            bitOffset = 0;
+            if (len == 0)
+                return 0;
+            if (streamPos >= length)
+                return -1;
+
+            int read = (int) Math.min(len, length - streamPos);
+            for (int remaining = read; remaining > 0;)
+            {
+                int offset = (int) (streamPos % CHUNK_SIZE);
+                int n = Math.min(remaining, CHUNK_SIZE - offset);
+                System.arraycopy(chunks.get((int) (streamPos / CHUNK_SIZE)), offset, b, off, n);
+                streamPos += n;
+                off += n;
+                remaining -= n;
+            }
+            return read;
+        }
+
+        @Override
+        public long length()
+        {
+            return length;
+        }
+
+        /**
+         * @return the chunk holding the byte at the position, borrowing or allocating chunks up to it as needed
+         */
+        private byte[] getChunk(long position)
+        {
+            int index = (int) (position / CHUNK_SIZE);
+            while (chunks.size() <= index)
+            {
+                byte[] chunk = CHUNK_POOL.poll();
+                if (chunk == null)
+                {
+                    chunk = new byte[CHUNK_SIZE];
+                    ALLOCATED_BUFFER_BYTES.addAndGet(CHUNK_SIZE);
+                }
+                else
+                {
+                    reused += CHUNK_SIZE;
+                }
+                chunks.add(chunk);
+            }
+            return chunks.get(index);
+        }
+
+        /**
+         * @return the written bytes, as an array of exactly the written size
+         */
+        private byte[] toByteArray()
+        {
+            byte[] bytes = new byte[(int) length];
+            for (int offset = 0, i = 0; offset < bytes.length; offset += CHUNK_SIZE, i++)
+                System.arraycopy(chunks.get(i), 0, bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset));
+            return bytes;
+        }
+
+        /**
+         * Hands the chunks back to CHUNK_POOL, dropping those that do not fit.
+         */
+        private void release()
+        {
+            for (byte[] chunk : chunks)
+                CHUNK_POOL.offer(chunk);
+            chunks.clear();
+            REUSED_BUFFER_BYTES.addAndGet(reused);
+        }
+    }
+
     @Override
     public void doPluginActionPost(AssetFactory factory, FolderContainedAsset asset) throws PluginException
     {
@@ -89,50 +430,395 @@ public class CreateResizedImagesPlugin extends BaseAssetFactoryPlugin
             {
                 validateParameters();
                 checkPlacementFolderConstraint(file);
-                BufferedImage original = null;
-                try
+                final ResizeJob job = createResizeJob(file, ext, originalData);
+                if (isAsynchronous())
                 {
-                    original = ImageIO.read(new ByteArrayInputStream(originalData));
+                    // fail fast on anything that is not an image, or sizes that do not fit it, while the editor
+                    // is still waiting
+                    validateNewDimensions(job);
+
+                    // the background job works on its own copy, since this file is handed back to the asset
+                    // factory as soon as this method returns
+                    final ResizeJob asyncJob = createResizeJob(file, ext, originalData);
+                    try
+                    {
+                        asyncJob.file = (File) Create.newAPIAsset(file);
+                    }
+                    catch (Exception e)
+                    {
+                        throw new PluginException("Unable to copy the file for resizing: " + e.getMessage(), e);
+                    }
+                    asyncJob.maxAttempts = ASYNC_CREATE_ATTEMPTS;
+                    asyncJob.originalFolder = file.getParentFolderIdentifier();
+                    try
+                    {
+                        asyncJob.existingOriginalId = findChildId(asyncJob.originalFolder, originalName, asyncJob.username);
+                    }
+                    catch (Exception e)
+                    {
+                        throw new PluginException("Unable to read the file's parent folder: " + e.getMessage(), e);
+                    }
+                    boolean queued = ResizedImageJobQueue.submit(originalName, new ResizedImageJobQueue.Task()
+                    {
+                        public void run() throws PluginException
+                        {
+                            // the original is only created once this plugin has returned, and not at all if
+                            // the create is rejected, in which case its copies must not be left behind
+                            waitForOriginal(asyncJob);
+                            createResizedImages(asyncJob);
+                        }
+                    });
+
+                    // the workers are too far behind, so create the copies right away, without retrying and
+                    // sleeping on the editor's request
+                    if (!queued)
+                    {
+                        LOG.warn("The resized image job queue is full, creating the resized copies of " + originalName + " right away");
+                        createResizedImages(job);
+                    }
                 }
-                catch (IOException e)
+                else
                 {
-                    throw new PluginException("Unable to read file contents: " + e.getMessage(), e);
+                    createResizedImages(job);
                 }
+            }
+            file.setName(originalName);
+            file.setData(originalData);
+        }
+    }
 
-                // if ImageIO.read could not find a suitable ImageReader for the byte data, then the result
-                // will be null
-                if (original == null)
-                    throw new PluginException("File is not a supported image type.  Supported image types are JPG, PNG, and BMP.");
+    /**
+     * Reads the header of the original and works out the dimensions of every resized copy, so an original that
+     * is not an image or a malformed width or height is reported to the editor before the job is queued.
+     * 
+     * @param job the resize job
+     * @throws PluginException if the original is not an image or the dimensions are malformed
+     */
+    private static final void validateNewDimensions(final ResizeJob job) throws PluginException
+    {
+        ImageReader reader = getImageReader(job.originalData);
+        try
+        {
+            Dimension originalDimensions = new Dimension(reader.getWidth(0), reader.getHeight(0));
+            for (int i = 0; i < job.numAdditionalImages; i++)
+            {
+                String height = i < job.heights.length ? job.heights[i].trim() : "";
+                String width = i < job.widths.length ? job.widths[i].trim() : "";
+                getNewImageDimensions(originalDimensions, height, width);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new PluginException("Unable to read file contents: " + e.getMessage(), e);
+        }
+        finally
+        {
+            disposeImageReader(reader);
+        }
+    }
 
-                final Dimension originalDimensions = new Dimension(original.getWidth(), original.getHeight());
-                final int numAdditionalImages = Integer.parseInt(getParameter(PARAM_NUM_ADDITIONAL_IMAGES_NAME_KEY));
+    /**
+     * Captures everything needed to resize the file: the original bytes and the parsed plug-in parameters. The
+     * parameters must already be validated.
+     * 
+     * @param file the file being created
+     * @param ext FileExtension object that has parsed the name of the file
+     * @param originalData the original bytes of the file
+     * @return the resize job, running as the current user with a single attempt at each Create
+     */
+    private final ResizeJob createResizeJob(File file, FileExtension ext, byte[] originalData)
+    {
+        ResizeJob job = new ResizeJob();
+        job.file = file;
+        job.originalData = originalData;
+        job.ext = ext;
+        job.numAdditionalImages = Integer.parseInt(getParameter(PARAM_NUM_ADDITIONAL_IMAGES_NAME_KEY));
+
+        String widthsStr = getParameter(PARAM_WIDTHS_NAME_KEY);
+        String heightStr = getParameter(PARAM_HEIGHTS_NAME_KEY);
 
-                String widthsStr = getParameter(PARAM_WIDTHS_NAME_KEY);
-                String heightStr = getParameter(PARAM_HEIGHTS_NAME_KEY);
+        if (widthsStr == null)
+            widthsStr = "";
+        if (heightStr == null)
+            heightStr = "";
+
+        job.widths = widthsStr.split(",");
+        job.heights = heightStr.split(",");
+        // extension cannot be empty so we don't have to check for empty here
+        job.extension = ext.getExtension().equalsIgnoreCase("gif") ? "jpg" : ext.getExtension();
+        job.methods = getMethods(job.numAdditionalImages);
+        job.jpegQualities = getJpegQualities(job.numAdditionalImages);
+        job.poolSize = getPoolSize();
+        job.cascadeRatio = getCascadeRatio();
+        job.cache = getCache();
+        job.username = getUsername();
+        job.maxAttempts = 1;
+        return job;
+    }
 
-                if (widthsStr == null)
-                    widthsStr = "";
-                if (heightStr == null)
-                    heightStr = "";
+    /**
+     * Creates the resized copies described by the job: every copy is resized (or taken from the cache) and
+     * persisted next to the original under a name of the form "$BASENAME-$WIDTHx$HEIGHT.$EXTENSION". The file is
+     * restored to its original name and bytes afterwards.
+     * 
+     * @param job the resize job
+     * @throws PluginException if the image could not be read or resized, or a copy could not be created
+     */
+    private static final void createResizedImages(final ResizeJob job) throws PluginException
+    {
+        final File file = job.file;
+        final byte[] originalData = job.originalData;
+        final String originalName = file.getName();
+        final FileExtension ext = job.ext;
+        final int numAdditionalImages = job.numAdditionalImages;
+        final String[] widths = job.widths;
+        final String[] heights = job.heights;
+        final String extensionStr = job.extension;
+        final Method[] methods = job.methods;
+        final float[] jpegQualities = job.jpegQualities;
+        final int poolSize = job.poolSize;
+        final double cascadeRatio = job.cascadeRatio;
+        final ResizedImageCache cache = job.cache;
+        final String[] cacheKeys = new String[numAdditionalImages];
+        byte[][] cachedImages = null;
 
-                final String[] widths = widthsStr.split(",");
-                final String[] heights = heightStr.split(",");
-                // extension cannot be empty so we don't have to check for empty here
-                final String extensionStr = ext.getExtension().equalsIgnoreCase("gif") ? "jpg" : ext.getExtension();
+        // only the header is read first; the pixels are decoded once the new dimensions are known
+        final Dimension[] newDimensions = new Dimension[numAdditionalImages];
+        BufferedImage original = null;
+        final ImageReader reader = getImageReader(originalData);
+        try
+        {
+            final Dimension originalDimensions = new Dimension(reader.getWidth(0), reader.getHeight(0));
+            for (int i = 0; i < numAdditionalImages; i++)
+            {
+                String height = i < heights.length ? heights[i].trim() : "";
+                String width = i < widths.length ? widths[i].trim() : "";
+                newDimensions[i] = getNewImageDimensions(originalDimensions, height, width);
+            }
 
+            if (cache != null)
+            {
+                // the subsampling and the cascade sources depend on every new size, not just the one being keyed
+                String contentHash = ResizedImageCache.hash(originalData);
+                int subsampling = getSubsampling(originalDimensions, newDimensions);
+                int[] sources = getCascadeSources(newDimensions, cascadeRatio);
                 for (int i = 0; i < numAdditionalImages; i++)
                 {
-                    String height = i < heights.length ? heights[i].trim() : "";
-                    String width = i < widths.length ? widths[i].trim() : "";
-                    Dimension newDimensions = getNewImageDimensions(originalDimensions, height, width);
-                    file.setData(getResizedImage(original, newDimensions, extensionStr));
-                    file.setName(createNewName(ext, newDimensions));
-                    persistNewImage(file, getUsername());
+                    Dimension source = sources[i] < 0 ? null : newDimensions[sources[i]];
+                    cacheKeys[i] = ResizedImageCache.createKey(contentHash, newDimensions[i].width, newDimensions[i].height, extensionStr,
+                            getCacheSettings(methods[i], jpegQualities[i], cascadeRatio, subsampling, source));
                 }
+                cachedImages = cache.getAll(cacheKeys);
             }
-            file.setName(originalName);
-            file.setData(originalData);
+
+            // when every copy is cached there is no need to decode the original at all
+            if (cachedImages == null)
+                original = readImage(reader, originalDimensions, newDimensions);
+        }
+        catch (IOException e)
+        {
+            throw new PluginException("Unable to read file contents: " + e.getMessage(), e);
+        }
+        finally
+        {
+            disposeImageReader(reader);
+        }
+
+        final AtomicLong reusedBufferBytes = new AtomicLong();
+        if (cachedImages != null)
+        {
+            LOG.debug("Using cached resized images for " + originalName);
+            for (int i = 0; i < numAdditionalImages; i++)
+            {
+                file.setData(cachedImages[i]);
+                file.setName(createNewName(ext, newDimensions[i]));
+                persistNewImage(file, job.username, job.maxAttempts);
+            }
+        }
+        else if ((poolSize > 1 || cascadeRatio > 0) && numAdditionalImages > 1)
+        {
+            // render every copy up front, then persist them in the configured order
+            byte[][] resizedImages = getResizedImages(original, newDimensions, methods, jpegQualities, extensionStr, poolSize, cascadeRatio,
+                    reusedBufferBytes);
+            for (int i = 0; i < numAdditionalImages; i++)
+            {
+                if (cache != null)
+                    cache.put(cacheKeys[i], resizedImages[i]);
+
+                file.setData(resizedImages[i]);
+                file.setName(createNewName(ext, newDimensions[i]));
+                persistNewImage(file, job.username, job.maxAttempts);
+            }
+        }
+        else
+        {
+            for (int i = 0; i < numAdditionalImages; i++)
+            {
+                byte[] resizedImage = getResizedImage(original, newDimensions[i], methods[i], jpegQualities[i], extensionStr,
+                        reusedBufferBytes);
+                if (cache != null)
+                    cache.put(cacheKeys[i], resizedImage);
+
+                file.setData(resizedImage);
+                file.setName(createNewName(ext, newDimensions[i]));
+                persistNewImage(file, job.username, job.maxAttempts);
+            }
+        }
+
+        LOG.debug(StringUtil.concat("Reused ", reusedBufferBytes.get(), " bytes of pooled output buffer for ", originalName));
+
+        file.setName(originalName);
+        file.setData(originalData);
+    }
+
+    /**
+     * Gets the resized image cache shared by every plugin configured with the same size.
+     * 
+     * @return the cache, or null if the cache size parameter is empty or 0
+     */
+    private final ResizedImageCache getCache()
+    {
+        String cacheSize = getParameter(PARAM_CACHE_SIZE_NAME_KEY);
+        if (StringUtil.isEmptyTrimmed(cacheSize) || Long.parseLong(cacheSize.trim()) == 0)
+            return null;
+
+        // validateParameters() has bounded the size by MAX_CACHE_SIZE, so this cannot overflow
+        return ResizedImageCache.getInstance(Long.parseLong(cacheSize.trim()) * 1024 * 1024);
+    }
+
+    /**
+     * Describes every setting other than the dimensions and format that changes the bytes of a resized image, so
+     * images resized with different settings are never mixed up in the cache.
+     * 
+     * @param method the resize method of the image
+     * @param jpegQuality the JPEG quality of the image, or -1 for the encoder default
+     * @param cascadeRatio the cascade ratio threshold, or 0 if the cascade is disabled
+     * @param subsampling the source subsampling the original is decoded with
+     * @param source the dimensions of the resized copy the image is resized from, or null if it is resized from
+     *        the original
+     * @return the settings part of the cache key of the image
+     */
+    private static final String getCacheSettings(Method method, float jpegQuality, double cascadeRatio, int subsampling, Dimension source)
+    {
+        return StringUtil.concat(method, ";", Mode.FIT_EXACT, ";quality=", jpegQuality, ";cascade=", cascadeRatio, ";subsampling=",
+                subsampling, ";source=", source == null ? "original" : source.width + "x" + source.height);
+    }
+
+    /**
+     * Gets an ImageReader for the given bytes with its input already set, so the dimensions of the image can be
+     * read from its header without decoding the pixels. The caller is responsible for disposing of the reader.
+     * 
+     * @param data the bytes of the image
+     * @return an ImageReader for the image
+     * @throws PluginException if the bytes are not in a supported image format
+     */
+    private static final ImageReader getImageReader(final byte[] data) throws PluginException
+    {
+        ImageInputStream in;
+        try
+        {
+            in = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+        }
+        catch (IOException e)
+        {
+            throw new PluginException("Unable to read file contents: " + e.getMessage(), e);
         }
+
+        // if ImageIO could not find a suitable ImageReader for the byte data, then there will be no readers
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext())
+        {
+            // the stream may be backed by a temporary file, which must not be left behind
+            try
+            {
+                in.close();
+            }
+            catch (IOException e)
+            {
+                LOG.debug("Unable to close the image input stream", e);
+            }
+            throw new PluginException("File is not a supported image type.  Supported image types are JPG, PNG, and BMP.");
+        }
+
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    /**
+     * Decodes the first image from the reader. When the largest new image is much smaller than the original, only
+     * every n-th pixel of every n-th row is decoded, so the decoded image (and the heap it takes) is sized after
+     * the new images instead of the original.
+     * 
+     * @param reader the ImageReader returned by getImageReader
+     * @param originalDimensions the dimensions of the original image, in pixels
+     * @param newDimensions the new dimensions of each image, in pixels
+     * @return the decoded image
+     * @throws PluginException if the image could not be decoded
+     */
+    private static final BufferedImage readImage(final ImageReader reader, final Dimension originalDimensions, final Dimension[] newDimensions)
+            throws PluginException
+    {
+        try
+        {
+            ImageReadParam param = reader.getDefaultReadParam();
+            int subsampling = getSubsampling(originalDimensions, newDimensions);
+            if (subsampling > 1)
+            {
+                LOG.debug(StringUtil.concat("Decoding the image with a subsampling of ", subsampling));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+            return reader.read(0, param);
+        }
+        catch (IOException e)
+        {
+            throw new PluginException("Unable to read file contents: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Disposes of an ImageReader returned by getImageReader along with its input stream.
+     * 
+     * @param reader the ImageReader to dispose of
+     */
+    private static final void disposeImageReader(final ImageReader reader)
+    {
+        ImageInputStream in = (ImageInputStream) reader.getInput();
+        reader.dispose();
+        try
+        {
+            in.close();
+        }
+        catch (IOException e)
+        {
+            LOG.debug("Unable to close the image input stream", e);
+        }
+    }
+
+    /**
+     * Gets the largest source subsampling that still decodes at least SUBSAMPLING_MARGIN times the width and
+     * height of the largest new image, so the resize that follows always has enough pixels to average over.
+     * 
+     * @param originalDimensions the dimensions of the original image, in pixels
+     * @param newDimensions the new dimensions of each image, in pixels
+     * @return the subsampling, 1 if every pixel must be decoded
+     */
+    private static final int getSubsampling(final Dimension originalDimensions, final Dimension[] newDimensions)
+    {
+        int maxWidth = 0;
+        int maxHeight = 0;
+        for (Dimension newDimension : newDimensions)
+        {
+            maxWidth = Math.max(maxWidth, newDimension.width);
+            maxHeight = Math.max(maxHeight, newDimension.height);
+        }
+
+        if (maxWidth <= 0 || maxHeight <= 0)
+            return 1;
+
+        int subsampling = Math.min(originalDimensions.width / (maxWidth * SUBSAMPLING_MARGIN), originalDimensions.height
+                / (maxHeight * SUBSAMPLING_MARGIN));
+        return Math.max(subsampling, 1);
     }
 
     /**
@@ -208,6 +894,189 @@ public class CreateResizedImagesPlugin extends BaseAssetFactoryPlugin
         {
             throw new PluginException("The number of heights specified in the comma-delimited list must match the number of additional images.");
         }
+
+        String methods = getParameter(PARAM_METHODS_NAME_KEY);
+        if (!StringUtil.isEmptyTrimmed(methods))
+        {
+            if (methods.split(",").length != numAdditionalImages)
+            {
+                throw new PluginException("The number of resize methods specified in the comma-delimited list must match the number of additional images.");
+            }
+
+            for (String method : methods.split(","))
+            {
+                try
+                {
+                    if (!StringUtil.isEmptyTrimmed(method))
+                        Method.valueOf(method.trim().toUpperCase());
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new PluginException("CreateResizedImagesPlugin parameter resize methods is malformed. Each method must be one of "
+                            + Arrays.toString(Method.values()) + ": " + method.trim(), e);
+                }
+            }
+        }
+
+        String jpegQualities = getParameter(PARAM_JPEG_QUALITIES_NAME_KEY);
+        if (!StringUtil.isEmptyTrimmed(jpegQualities))
+        {
+            if (jpegQualities.split(",").length != numAdditionalImages)
+            {
+                throw new PluginException("The number of JPEG qualities specified in the comma-delimited list must match the number of additional images.");
+            }
+
+            for (String jpegQuality : jpegQualities.split(","))
+            {
+                try
+                {
+                    if (!StringUtil.isEmptyTrimmed(jpegQuality))
+                    {
+                        int quality = Integer.parseInt(jpegQuality.trim());
+                        if (quality < 1 || quality > 100)
+                        {
+                            throw new NumberFormatException("The value must be between 1 and 100.");
+                        }
+                    }
+                }
+                catch (NumberFormatException e)
+                {
+                    throw new PluginException("CreateResizedImagesPlugin parameter JPEG qualities is malformed. Each quality must be an integer: "
+                            + e.getMessage(), e);
+                }
+            }
+        }
+
+        String poolSize = getParameter(PARAM_POOL_SIZE_NAME_KEY);
+        if (!StringUtil.isEmptyTrimmed(poolSize))
+        {
+            try
+            {
+                if (Integer.parseInt(poolSize.trim()) < 1)
+                {
+                    throw new NumberFormatException("The value must be positive.");
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                throw new PluginException("CreateResizedImagesPlugin parameter worker pool size is malformed. Must be a positive integer: "
+                        + e.getMessage(), e);
+            }
+        }
+
+        String cacheSize = getParameter(PARAM_CACHE_SIZE_NAME_KEY);
+        if (!StringUtil.isEmptyTrimmed(cacheSize))
+        {
+            try
+            {
+                long size = Long.parseLong(cacheSize.trim());
+                if (size < 0 || size > MAX_CACHE_SIZE)
+                {
+                    throw new NumberFormatException("The value must be between 0 and " + MAX_CACHE_SIZE + ".");
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                throw new PluginException("CreateResizedImagesPlugin parameter cache size is malformed. Must be an integer: "
+                        + e.getMessage(), e);
+            }
+        }
+
+        String cascadeRatio = getParameter(PARAM_CASCADE_RATIO_NAME_KEY);
+        if (!StringUtil.isEmptyTrimmed(cascadeRatio))
+        {
+            try
+            {
+                if (!(Double.parseDouble(cascadeRatio.trim()) >= 1))
+                {
+                    throw new NumberFormatException("The value must be at least 1.");
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                throw new PluginException("CreateResizedImagesPlugin parameter cascade ratio threshold is malformed. Must be a number of at least 1: "
+                        + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Gets the configured resize method of each new image.
+     * 
+     * @param numAdditionalImages the number of new images
+     * @return the resize method of each new image, ULTRA_QUALITY where none is configured
+     */
+    private final Method[] getMethods(int numAdditionalImages)
+    {
+        String methodsStr = getParameter(PARAM_METHODS_NAME_KEY);
+        String[] methods = StringUtil.isEmptyTrimmed(methodsStr) ? new String[0] : methodsStr.split(",");
+
+        Method[] result = new Method[numAdditionalImages];
+        for (int i = 0; i < numAdditionalImages; i++)
+        {
+            String method = i < methods.length ? methods[i].trim() : "";
+            result[i] = method.length() == 0 ? Method.ULTRA_QUALITY : Method.valueOf(method.toUpperCase());
+        }
+        return result;
+    }
+
+    /**
+     * Gets the configured JPEG quality of each new image.
+     * 
+     * @param numAdditionalImages the number of new images
+     * @return the JPEG quality of each new image between 0 and 1, -1 where none is configured
+     */
+    private final float[] getJpegQualities(int numAdditionalImages)
+    {
+        String jpegQualitiesStr = getParameter(PARAM_JPEG_QUALITIES_NAME_KEY);
+        String[] jpegQualities = StringUtil.isEmptyTrimmed(jpegQualitiesStr) ? new String[0] : jpegQualitiesStr.split(",");
+
+        float[] result = new float[numAdditionalImages];
+        for (int i = 0; i < numAdditionalImages; i++)
+        {
+            String jpegQuality = i < jpegQualities.length ? jpegQualities[i].trim() : "";
+            result[i] = jpegQuality.length() == 0 ? -1 : Integer.parseInt(jpegQuality) / 100f;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the resized copies should be created by a background job
+     */
+    private final boolean isAsynchronous()
+    {
+        String async = getParameter(PARAM_ASYNC_NAME_KEY);
+        return async != null && Boolean.parseBoolean(async.trim());
+    }
+
+    /**
+     * Gets the configured worker pool size. An empty parameter means the resized images are rendered one at a
+     * time on the request thread.
+     * 
+     * @return the worker pool size, at least 1
+     */
+    private final int getPoolSize()
+    {
+        String poolSize = getParameter(PARAM_POOL_SIZE_NAME_KEY);
+        if (StringUtil.isEmptyTrimmed(poolSize))
+            return 1;
+
+        return Integer.parseInt(poolSize.trim());
+    }
+
+    /**
+     * Gets the configured cascade ratio threshold. An empty parameter disables the cascade, and every image is
+     * resized from the original.
+     * 
+     * @return the cascade ratio threshold, or 0 if the cascade is disabled
+     */
+    private final double getCascadeRatio()
+    {
+        String cascadeRatio = getParameter(PARAM_CASCADE_RATIO_NAME_KEY);
+        if (StringUtil.isEmptyTrimmed(cascadeRatio))
+            return 0;
+
+        return Double.parseDouble(cascadeRatio.trim());
     }
 
     /**
@@ -237,27 +1106,114 @@ public class CreateResizedImagesPlugin extends BaseAssetFactoryPlugin
         }
     }
 
+    /**
+     * Waits until the original file of a background job has been created, so resized copies are never created
+     * for an original whose create was rejected after this plugin ran. The original is recognized by its name,
+     * so it must not be renamed by a plugin that runs after this one.
+     * 
+     * @param job the background resize job
+     * @throws FatalPluginException if the original was not created within ORIGINAL_WAIT milliseconds
+     */
+    private static final void waitForOriginal(ResizeJob job) throws FatalPluginException
+    {
+        String originalName = job.file.getName();
+        long deadline = System.currentTimeMillis() + ORIGINAL_WAIT;
+        while (true)
+        {
+            try
+            {
+                String id = findChildId(job.originalFolder, originalName, job.username);
+                if (id != null && !id.equals(job.existingOriginalId))
+                    return;
+            }
+            catch (Exception e)
+            {
+                LOG.debug("Unable to look for the original file " + originalName, e);
+            }
+
+            if (System.currentTimeMillis() >= deadline)
+                throw new FatalPluginException("The original file " + originalName + " was not created, so no resized copies were created");
+
+            try
+            {
+                Thread.sleep(ORIGINAL_POLL_DELAY);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new FatalPluginException("Interrupted while waiting for the original file to be created", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the folder as the user and looks for a child with the given name.
+     * 
+     * @param folderIdentifier the folder to look in
+     * @param name the name of the child
+     * @param username the user reading the folder
+     * @return the id of the child, or null if the folder has no child with the name
+     * @throws Exception if the folder could not be read
+     */
+    private static final String findChildId(PathIdentifier folderIdentifier, String name, String username) throws Exception
+    {
+        Read read = new Read();
+        read.setToRead(folderIdentifier);
+        read.setUsername(username);
+        Folder folder = (Folder) ((ReadOperationResult) read.perform()).getAsset();
+        for (PathIdentifier child : folder.getChildrenIdentifiers())
+        {
+            Path path = child.getPath();
+            List<String> segments = path == null ? null : path.getPathSegments();
+            if (segments != null && !segments.isEmpty() && segments.get(segments.size() - 1).equals(name))
+                return child.getId();
+        }
+        return null;
+    }
+
     /**
      * Persists the file described by the FileModelBean
      * 
      * @param newFile the FileModelBean containing the information to persist.
      * @param username the username of the user creating the file
+     * @param maxAttempts the number of times the Create is tried before giving up; the wait between attempts
+     *        starts at ASYNC_CREATE_RETRY_DELAY and doubles after every attempt
      * @throws FatalPluginException
      */
-    private static final void persistNewImage(File newFile, String username) throws FatalPluginException
+    private static final void persistNewImage(File newFile, String username, int maxAttempts) throws FatalPluginException
     {
-        Create create = new Create();
-        create.setUsername(username);
-        create.setAsset(newFile);
-        create.setInstantiateWorkflow(false);
-        create.setCreateNewInstance(true);
-        try
-        {
-            create.perform();
-        }
-        catch (Exception e)
+        long delay = ASYNC_CREATE_RETRY_DELAY;
+        for (int attempt = 1;; attempt++)
         {
-            throw new FatalPluginException("Unable to create a resized copy: " + e.getMessage(), e);
+            Create create = new Create();
+            create.setUsername(username);
+            create.setAsset(newFile);
+            create.setInstantiateWorkflow(false);
+            create.setCreateNewInstance(true);
+            try
+            {
+                create.perform();
+                return;
+            }
+            catch (Exception e)
+            {
+                if (attempt >= maxAttempts)
+                    throw new FatalPluginException("Unable to create a resized copy: " + e.getMessage(), e);
+
+                LOG.warn(StringUtil.concat("Unable to create resized copy ", newFile.getName(), " (attempt ", attempt, " of ", maxAttempts,
+                        "), retrying in ", delay, "ms: ", e.getMessage()));
+            }
+
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new FatalPluginException("Interrupted while creating a resized copy", e);
+            }
+            delay *= 2;
         }
     }
     
@@ -265,19 +1221,43 @@ public class CreateResizedImagesPlugin extends BaseAssetFactoryPlugin
      * Resizes the image according to the new height and width given.
      * 
      * @param img The source image to manipulate
+     * @param method The resize method; AUTOMATIC picks one with getAutomaticMethod
      * @param newWidth The new width of image
      * @param newHeight The new height of the image
      * @return The newly transformed image
      */
-    private static final BufferedImage resizeImage(BufferedImage img, int newWidth, int newHeight)
+    static final BufferedImage resizeImage(BufferedImage img, Method method, int newWidth, int newHeight)
     {
-        LOG.debug(StringUtil.concat("Resizing the image to ", newWidth, " x ", newHeight));
-
         // we can't have the image dimensions be 0
         if (newWidth <= 0 || newHeight <= 0)
             return null;
 
-        return Scalr.resize(img, Method.ULTRA_QUALITY, Mode.FIT_EXACT, newWidth, newHeight);
+        if (method == Method.AUTOMATIC)
+            method = getAutomaticMethod(img, newWidth, newHeight);
+
+        LOG.debug(StringUtil.concat("Resizing the image to ", newWidth, " x ", newHeight, " using ", method));
+        return Scalr.resize(img, method, Mode.FIT_EXACT, newWidth, newHeight);
+    }
+
+    /**
+     * Picks the resize method for the AUTOMATIC setting. Thumbnails do not benefit visibly from the many small
+     * steps ULTRA_QUALITY takes, so they are resized with QUALITY, or in a single BALANCED step when the source is
+     * at most twice their size. Larger images keep using ULTRA_QUALITY.
+     * 
+     * @param img The source image
+     * @param newWidth The new width of image
+     * @param newHeight The new height of the image
+     * @return the resize method to use
+     */
+    private static final Method getAutomaticMethod(BufferedImage img, int newWidth, int newHeight)
+    {
+        if (Math.max(newWidth, newHeight) > AUTOMATIC_THUMBNAIL_SIZE)
+            return Method.ULTRA_QUALITY;
+
+        if (img.getWidth() <= newWidth * 2 && img.getHeight() <= newHeight * 2)
+            return Method.BALANCED;
+
+        return Method.QUALITY;
     }
 
     /**
@@ -287,24 +1267,286 @@ public class CreateResizedImagesPlugin extends BaseAssetFactoryPlugin
      * 
      * @param original the original BufferedImage to resize.
      * @param newDimensions the new dimensions of the image, in pixels
+     * @param method the resize method
+     * @param jpegQuality the JPEG quality between 0 and 1, or -1 for the encoder default
      * @param extension the extension of the original file - this determines the type of image that is written
      *        into the byte array
+     * @param reusedBufferBytes accumulates the bytes of output buffer borrowed from the pool
      * @return the bytes of the resized image
      * @throws PluginException
      */
-    private static final byte[] getResizedImage(final BufferedImage original, final Dimension newDimensions, String extension) throws PluginException
+    static final byte[] getResizedImage(final BufferedImage original, final Dimension newDimensions, Method method, float jpegQuality,
+            String extension, AtomicLong reusedBufferBytes) throws PluginException
+    {
+        return writeImage(resizeImage(original, method, newDimensions.width, newDimensions.height), jpegQuality, extension, reusedBufferBytes);
+    }
+
+    /**
+     * Serializes the image in the format specified by extension. The encoder writes straight into an
+     * ImageOutputBuffer made of chunks borrowed from CHUNK_POOL, and the returned array is allocated once the
+     * encoded size is known, so it is the only array allocated for the image unless the pool runs out of chunks.
+     * 
+     * @param image the image to serialize
+     * @param jpegQuality the JPEG quality between 0 and 1, or -1 for the encoder default. Ignored for other formats.
+     * @param extension the extension of the original file - this determines the type of image that is written
+     *        into the byte array
+     * @param reusedBufferBytes accumulates the bytes of output buffer borrowed from the pool
+     * @return the bytes of the image
+     * @throws PluginException
+     */
+    private static final byte[] writeImage(final BufferedImage image, float jpegQuality, String extension, AtomicLong reusedBufferBytes)
+            throws PluginException
     {
+        ImageOutputBuffer outStream = new ImageOutputBuffer();
         try
         {
-            BufferedImage out = resizeImage(original, newDimensions.width, newDimensions.height);
-            ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-            ImageIO.write(out, extension, outStream);
+            if (jpegQuality >= 0 && (extension.equalsIgnoreCase("jpg") || extension.equalsIgnoreCase("jpeg")))
+                writeJpeg(image, jpegQuality, outStream);
+            else
+                ImageIO.write(image, extension, outStream);
             return outStream.toByteArray();
         }
         catch (IOException ioe)
         {
             throw new PluginException("Unable to resize image: " + ioe.getMessage(), ioe);
         }
+        finally
+        {
+            reusedBufferBytes.addAndGet(outStream.reused);
+            outStream.release();
+        }
+    }
+
+    /**
+     * Serializes the image as a JPEG with the given compression quality.
+     * 
+     * @param image the image to serialize
+     * @param jpegQuality the JPEG quality between 0 and 1
+     * @param out the stream to write the JPEG to
+     * @throws IOException
+     */
+    private static final void writeJpeg(final BufferedImage image, float jpegQuality, ImageOutputStream out) throws IOException
+    {
+        if (image == null)
+            throw new IllegalArgumentException("image == null!");
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try
+        {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+        finally
+        {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Gets the bytes of output buffer borrowed from the pool instead of allocated since startup.
+     * 
+     * @return the bytes reused
+     */
+    public static final long getReusedBufferBytes()
+    {
+        return REUSED_BUFFER_BYTES.get();
+    }
+
+    /**
+     * Gets the bytes of output buffer allocated because the pool had no chunk to lend since startup. This does not
+     * include the arrays of the encoded images themselves.
+     * 
+     * @return the bytes allocated
+     */
+    public static final long getAllocatedBufferBytes()
+    {
+        return ALLOCATED_BUFFER_BYTES.get();
+    }
+
+    /**
+     * Gets the bytes of every resized image. With a pool size greater than 1 up to that many of the images are
+     * resized and serialized at the same time on the shared RENDER_EXECUTOR. Otherwise they are rendered one at a
+     * time on the calling thread.
+     * 
+     * With a cascade ratio, the images are resized from the largest to the smallest and each image is resized
+     * from the smallest copy that is at least cascadeRatio times larger than it, falling back to the original.
+     * 
+     * @param original the original BufferedImage to resize. It is only read from, so it can be shared by the workers.
+     * @param newDimensions the new dimensions of each image, in pixels
+     * @param methods the resize method of each image
+     * @param jpegQualities the JPEG quality of each image between 0 and 1, or -1 for the encoder default
+     * @param extension the extension of the original file - this determines the type of image that is written
+     *        into the byte arrays
+     * @param poolSize the maximum number of images rendered at the same time
+     * @param cascadeRatio the cascade ratio threshold, or 0 to resize every image from the original
+     * @param reusedBufferBytes accumulates the bytes of output buffer borrowed from the pool
+     * @return the bytes of the resized images, in the same order as newDimensions
+     * @throws PluginException if any of the images could not be resized, in which case the images not yet started
+     *         are cancelled
+     */
+    private static final byte[][] getResizedImages(final BufferedImage original, final Dimension[] newDimensions, final Method[] methods,
+            final float[] jpegQualities, final String extension, int poolSize, double cascadeRatio, final AtomicLong reusedBufferBytes)
+            throws PluginException
+    {
+        Executor executor = new Executor()
+        {
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        };
+        if (poolSize > 1)
+        {
+            executor = new LimitedExecutor(RENDER_EXECUTOR, Math.min(poolSize, newDimensions.length));
+        }
+
+        try
+        {
+            final int[] sources = getCascadeSources(newDimensions, cascadeRatio);
+            final List<CompletableFuture<BufferedImage>> resized = new ArrayList<CompletableFuture<BufferedImage>>(
+                    Collections.<CompletableFuture<BufferedImage>> nCopies(newDimensions.length, null));
+            final List<CompletableFuture<byte[]>> written = new ArrayList<CompletableFuture<byte[]>>(
+                    Collections.<CompletableFuture<byte[]>> nCopies(newDimensions.length, null));
+            final CompletableFuture<Void> failed = new CompletableFuture<Void>();
+            for (int i : getLargestFirstOrder(newDimensions))
+            {
+                final Dimension newDimension = newDimensions[i];
+                final Method method = methods[i];
+                final float jpegQuality = jpegQualities[i];
+                CompletableFuture<BufferedImage> source = sources[i] < 0 ? CompletableFuture.completedFuture(original) : resized.get(sources[i]);
+                resized.set(i, source.thenApplyAsync(new Function<BufferedImage, BufferedImage>()
+                {
+                    public BufferedImage apply(BufferedImage img)
+                    {
+                        return resizeImage(img, method, newDimension.width, newDimension.height);
+                    }
+                }, executor));
+                written.set(i, resized.get(i).thenApplyAsync(new Function<BufferedImage, byte[]>()
+                {
+                    public byte[] apply(BufferedImage img)
+                    {
+                        try
+                        {
+                            return writeImage(img, jpegQuality, extension, reusedBufferBytes);
+                        }
+                        catch (PluginException e)
+                        {
+                            throw new CompletionException(e);
+                        }
+                    }
+                }, executor));
+                written.get(i).whenComplete(new BiConsumer<byte[], Throwable>()
+                {
+                    public void accept(byte[] bytes, Throwable t)
+                    {
+                        if (t != null)
+                            failed.completeExceptionally(t);
+                    }
+                });
+            }
+
+            try
+            {
+                // returns as soon as every image is written or any of them fails
+                CompletableFuture.anyOf(CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[written.size()])), failed).join();
+            }
+            catch (CompletionException e)
+            {
+                // images not started yet are skipped, so they stop taking up RENDER_EXECUTOR; those already
+                // running finish their current step and are dropped
+                cancel(resized);
+                cancel(written);
+                throw e;
+            }
+
+            byte[][] resizedImages = new byte[newDimensions.length][];
+            for (int i = 0; i < resizedImages.length; i++)
+            {
+                resizedImages[i] = written.get(i).join();
+            }
+            return resizedImages;
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof PluginException)
+                throw (PluginException) e.getCause();
+
+            throw new PluginException("Unable to resize image: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Cancels every future that has not completed yet.
+     * 
+     * @param futures the futures to cancel
+     */
+    private static final void cancel(List<? extends CompletableFuture<?>> futures)
+    {
+        for (CompletableFuture<?> future : futures)
+        {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Gets the indexes of the given dimensions ordered from the largest area to the smallest.
+     * 
+     * @param dimensions the dimensions to order
+     * @return the indexes into dimensions, largest first
+     */
+    private static final Integer[] getLargestFirstOrder(final Dimension[] dimensions)
+    {
+        Integer[] order = new Integer[dimensions.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                return Long.compare((long) dimensions[b].width * dimensions[b].height, (long) dimensions[a].width * dimensions[a].height);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Picks the image each resized image will be resized from. Walking from the largest image to the smallest,
+     * each image uses the smallest of the larger images that is at least cascadeRatio times its width and
+     * height, so no copy is ever derived from one that is too close to its own size.
+     * 
+     * @param newDimensions the new dimensions of each image, in pixels
+     * @param cascadeRatio the cascade ratio threshold, or 0 to resize every image from the original
+     * @return for each image the index of the image it is resized from, or -1 for the original
+     */
+    private static final int[] getCascadeSources(final Dimension[] newDimensions, double cascadeRatio)
+    {
+        int[] sources = new int[newDimensions.length];
+        Arrays.fill(sources, -1);
+        if (cascadeRatio <= 0)
+            return sources;
+
+        Integer[] order = getLargestFirstOrder(newDimensions);
+        for (int i = 1; i < order.length; i++)
+        {
+            Dimension target = newDimensions[order[i]];
+            // the earlier entries are larger, so the nearest usable one is found by walking backwards
+            for (int j = i - 1; j >= 0; j--)
+            {
+                Dimension candidate = newDimensions[order[j]];
+                if (candidate.width >= target.width * cascadeRatio && candidate.height >= target.height * cascadeRatio)
+                {
+                    sources[order[i]] = order[j];
+                    break;
+                }
+            }
+        }
+        return sources;
     }
 
     /**
@@ -318,7 +1560,7 @@ public class CreateResizedImagesPlugin extends BaseAssetFactoryPlugin
      *        otherwise)
      * @return
      */
-    private final Dimension getNewImageDimensions(final Dimension originalDimensions, String newHeightStr, String newWidthStr) throws PluginException
+    static final Dimension getNewImageDimensions(final Dimension originalDimensions, String newHeightStr, String newWidthStr) throws PluginException
     {
         int newWidth = -1;
         int newHeight = -1;
@@ -407,31 +1649,7 @@ public class CreateResizedImagesPlugin extends BaseAssetFactoryPlugin
      */
     private User getCurrentUser() throws PluginException
     {
-        Read read = new Read();
-        Identifier identifier = new Identifier()
-        {
-            public String getId()
-            {
-                return getUsername();
-            }
-
-            public EntityType getType()
-            {
-                return EntityTypes.TYPE_USER;
-            }
-        };
-
-        read.setToRead(identifier);
-        read.setUsername(getUsername());
-        try
-        {
-            ReadOperationResult result = (ReadOperationResult) read.perform();
-            return (User) result.getAsset();
-        }
-        catch (Exception e)
-        {
-            throw new PluginException("Unable to read the user: " + e.getMessage());
-        }
+        return UserCache.getUser(getUsername());
     }
 
     public Map<String, String> getAvailableParameterDescriptions()
@@ -440,6 +1658,12 @@ public class CreateResizedImagesPlugin extends BaseAssetFactoryPlugin
         descriptions.put(PARAM_NUM_ADDITIONAL_IMAGES_NAME_KEY, PARAM_NUM_ADDITIONAL_IMAGES_DESCRIPTION_KEY);
         descriptions.put(PARAM_WIDTHS_NAME_KEY, PARAM_WIDTHS_DESCRIPTION_KEY);
         descriptions.put(PARAM_HEIGHTS_NAME_KEY, PARAM_HEIGHTS_DESCRIPTION_KEY);
+        descriptions.put(PARAM_METHODS_NAME_KEY, PARAM_METHODS_DESCRIPTION_KEY);
+        descriptions.put(PARAM_JPEG_QUALITIES_NAME_KEY, PARAM_JPEG_QUALITIES_DESCRIPTION_KEY);
+        descriptions.put(PARAM_POOL_SIZE_NAME_KEY, PARAM_POOL_SIZE_DESCRIPTION_KEY);
+        descriptions.put(PARAM_CASCADE_RATIO_NAME_KEY, PARAM_CASCADE_RATIO_DESCRIPTION_KEY);
+        descriptions.put(PARAM_CACHE_SIZE_NAME_KEY, PARAM_CACHE_SIZE_DESCRIPTION_KEY);
+        descriptions.put(PARAM_ASYNC_NAME_KEY, PARAM_ASYNC_DESCRIPTION_KEY);
         return descriptions;
     }
 
@@ -447,7 +1671,9 @@ public class CreateResizedImagesPlugin extends BaseAssetFactoryPlugin
     {
         return new String[]
         {
-                PARAM_NUM_ADDITIONAL_IMAGES_NAME_KEY, PARAM_WIDTHS_NAME_KEY, PARAM_HEIGHTS_NAME_KEY
+                PARAM_NUM_ADDITIONAL_IMAGES_NAME_KEY, PARAM_WIDTHS_NAME_KEY, PARAM_HEIGHTS_NAME_KEY, PARAM_METHODS_NAME_KEY,
+                PARAM_JPEG_QUALITIES_NAME_KEY, PARAM_POOL_SIZE_NAME_KEY, PARAM_CASCADE_RATIO_NAME_KEY, PARAM_CACHE_SIZE_NAME_KEY,
+                PARAM_ASYNC_NAME_KEY
         };
     }
 
@@ -0,0 +1,182 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoField;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The year, month and day strings of a date, as used by the asset fields plug-ins to name assets and to find the
+ * year/month/day folders to place them in. Every string is computed once, when the object is created, with no
+ * Calendar or Formatter involved; month names come from tables built once from the default locale.
+ *
+ * The strings are the same as Formatter's date conversions in the default locale: getIsoDate() is "%tF",
+ * getYear() is "%tY", getMonthName() is "%tB", getMonthAbbreviation() is "%tb", getMonthNumber() is "%tm",
+ * getDay() is "%td" and getDayUnpadded() is "%te".
+ *
+ * @since 8.17
+ */
+final class DateComponents
+{
+    /**
+     * Parses yyyy-MM-dd dates leniently, i.e. out of range months and days roll over into the next year or
+     * month, and anything following the date is ignored, the way SimpleDateFormat("yyyy-MM-dd") parses them
+     */
+    private static final DateTimeFormatter ISO_DATE_PARSER = new DateTimeFormatterBuilder().appendValue(ChronoField.YEAR).appendLiteral('-')
+            .appendValue(ChronoField.MONTH_OF_YEAR).appendLiteral('-').appendValue(ChronoField.DAY_OF_MONTH).toFormatter()
+            .withResolverStyle(ResolverStyle.LENIENT);
+
+    private static final String[] MONTH_NAMES = getMonthNames(TextStyle.FULL);
+    private static final String[] MONTH_ABBREVIATIONS = getMonthNames(TextStyle.SHORT);
+
+    private final String year;
+    private final String monthNumber;
+    private final String monthName;
+    private final String monthAbbreviation;
+    private final String day;
+    private final String dayUnpadded;
+    private final String isoDate;
+
+    private DateComponents(LocalDate date)
+    {
+        year = pad(date.getYear(), 4);
+        monthNumber = pad(date.getMonthValue(), 2);
+        monthName = MONTH_NAMES[date.getMonthValue() - 1];
+        monthAbbreviation = MONTH_ABBREVIATIONS[date.getMonthValue() - 1];
+        day = pad(date.getDayOfMonth(), 2);
+        dayUnpadded = Integer.toString(date.getDayOfMonth());
+        isoDate = year + "-" + monthNumber + "-" + day;
+    }
+
+    /**
+     * @param date a date
+     * @return the components of the date in the default time zone
+     */
+    static DateComponents of(Date date)
+    {
+        return new DateComponents(Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate());
+    }
+
+    /**
+     * Gets the components of a date given as numbers. Out of range months and days roll over into the next year
+     * or month, like a lenient Calendar.
+     *
+     * @param year the year
+     * @param month the month, starting at 1
+     * @param day the day of the month, starting at 1
+     * @return the components of the date
+     */
+    static DateComponents of(int year, int month, int day)
+    {
+        return new DateComponents(LocalDate.of(year, 1, 1).plusMonths(month - 1L).plusDays(day - 1L));
+    }
+
+    /**
+     * Parses a yyyy-MM-dd date, such as the dates the asset fields plug-ins extract from metadata and structured
+     * data.
+     *
+     * @param value the value to parse
+     * @return the components of the date, or null if the value does not start with a date
+     */
+    static DateComponents parse(String value)
+    {
+        try
+        {
+            return new DateComponents(LocalDate.from(ISO_DATE_PARSER.parse(value, new ParsePosition(0))));
+        }
+        catch (DateTimeException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return the date as yyyy-MM-dd, e.g. 2011-12-05
+     */
+    String getIsoDate()
+    {
+        return isoDate;
+    }
+
+    /**
+     * @return the year with at least four digits, e.g. 2011
+     */
+    String getYear()
+    {
+        return year;
+    }
+
+    /**
+     * @return the two digit month, e.g. 03
+     */
+    String getMonthNumber()
+    {
+        return monthNumber;
+    }
+
+    /**
+     * @return the full name of the month, e.g. March
+     */
+    String getMonthName()
+    {
+        return monthName;
+    }
+
+    /**
+     * @return the abbreviated name of the month, e.g. Mar
+     */
+    String getMonthAbbreviation()
+    {
+        return monthAbbreviation;
+    }
+
+    /**
+     * @return the two digit day of the month, e.g. 05
+     */
+    String getDay()
+    {
+        return day;
+    }
+
+    /**
+     * @return the day of the month without leading zero, e.g. 5
+     */
+    String getDayUnpadded()
+    {
+        return dayUnpadded;
+    }
+
+    private static String[] getMonthNames(TextStyle style)
+    {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        String[] names = new String[12];
+        for (Month month : Month.values())
+        {
+            names[month.ordinal()] = month.getDisplayName(style, locale);
+        }
+        return names;
+    }
+
+    private static String pad(int value, int width)
+    {
+        String digits = Integer.toString(value);
+        if (digits.length() >= width || value < 0)
+            return digits;
+
+        StringBuilder padded = new StringBuilder(width);
+        for (int i = digits.length(); i < width; i++)
+        {
+            padded.append('0');
+        }
+        return padded.append(digits).toString();
+    }
+}
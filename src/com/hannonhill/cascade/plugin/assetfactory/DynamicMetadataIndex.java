@@ -0,0 +1,69 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hannonhill.cascade.api.asset.common.DynamicMetadataField;
+
+/**
+ * An index of an asset's dynamic metadata values by field name, built in a single pass, so every dynamic
+ * metadata field identifier is resolved with one lookup. Values are trimmed and blank values are left out when
+ * the index is built.
+ *
+ * @since 8.17
+ */
+final class DynamicMetadataIndex
+{
+    private static final String[] NO_VALUES = new String[0];
+
+    private final Map<String, String[]> values;
+
+    /**
+     * Indexes the dynamic metadata.
+     *
+     * @param dynamicFields the asset's dynamic metadata fields
+     */
+    DynamicMetadataIndex(DynamicMetadataField[] dynamicFields)
+    {
+        Map<String, List<String>> fieldValues = new HashMap<String, List<String>>();
+        for (DynamicMetadataField field : dynamicFields)
+        {
+            List<String> trimmed = fieldValues.get(field.getName());
+            if (trimmed == null)
+            {
+                trimmed = new ArrayList<String>();
+                fieldValues.put(field.getName(), trimmed);
+            }
+
+            String[] fieldValueArray = field.getValues();
+            if (fieldValueArray == null)
+                continue;
+
+            for (String value : fieldValueArray)
+            {
+                if (value != null && value.trim().length() > 0)
+                    trimmed.add(value.trim());
+            }
+        }
+
+        values = new HashMap<String, String[]>(fieldValues.size() * 2);
+        for (Map.Entry<String, List<String>> entry : fieldValues.entrySet())
+        {
+            values.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+        }
+    }
+
+    /**
+     * Gets the values of the field. The array must not be modified.
+     *
+     * @param name the name of the dynamic metadata field
+     * @return the trimmed, non-blank values of the field, or an empty array if it has none or does not exist
+     */
+    String[] getValues(String name)
+    {
+        String[] fieldValues = values.get(name);
+        return fieldValues == null ? NO_VALUES : fieldValues;
+    }
+}
@@ -0,0 +1,231 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compiled form of an AssetFieldsPlugin Field IDs parameter: every comma-delimited field identifier is
+ * classified as wired metadata, dynamic metadata or structured data once, and its field name or structured data
+ * path is extracted up front, so searching an asset for the field values does not parse the identifiers again.
+ *
+ * Plans are immutable and cached by the parameter string, so every plugin configured with the same Field IDs
+ * shares one plan.
+ *
+ * @since 8.17
+ */
+final class FieldIdentifierPlan
+{
+    /** A wired metadata field, e.g. title */
+    static final int TYPE_WIRED_METADATA = 0;
+    /** A dynamic metadata field, e.g. dynamic-metadata/my-custom-field */
+    static final int TYPE_DYNAMIC_METADATA = 1;
+    /** A structured data field, e.g. system-data-structure/my-group/my-field */
+    static final int TYPE_STRUCTURED_DATA = 2;
+
+    /** The wired metadata fields, in the order a field identifier is matched against them */
+    private static final String[] WIRED_METADATA_FIELDS =
+    {
+            AssetFieldsPlugin.METADATA_TITLE, AssetFieldsPlugin.METADATA_DISPLAY_NAME, AssetFieldsPlugin.METADATA_DESCRIPTION,
+            AssetFieldsPlugin.METADATA_AUTHOR, AssetFieldsPlugin.METADATA_KEYWORDS, AssetFieldsPlugin.METADATA_SUMMARY,
+            AssetFieldsPlugin.METADATA_TEASER, AssetFieldsPlugin.METADATA_START_DATE, AssetFieldsPlugin.METADATA_END_DATE,
+            AssetFieldsPlugin.METADATA_REVIEW_DATE, AssetFieldsPlugin.METADATA_EXPIRATION_FOLDER
+    };
+
+    /** The most plans cached at once */
+    private static final int MAX_PLANS = 64;
+
+    private static final Map<String, FieldIdentifierPlan> PLANS = new LinkedHashMap<String, FieldIdentifierPlan>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FieldIdentifierPlan> eldest)
+        {
+            return size() > MAX_PLANS;
+        }
+    };
+
+    private final List<Field> fields;
+
+    /**
+     * One compiled field identifier.
+     */
+    static final class Field
+    {
+        private final String identifier;
+        private final int type;
+        private final String name;
+        private final String pathKey;
+
+        private Field(String identifier, int type, String name, String[] path)
+        {
+            this.identifier = identifier;
+            this.type = type;
+            this.name = name;
+            this.pathKey = path == null ? null : StructuredDataIndex.getKey(path);
+        }
+
+        /**
+         * @return the field identifier as it was given, for error messages
+         */
+        String getIdentifier()
+        {
+            return identifier;
+        }
+
+        /**
+         * @return one of TYPE_WIRED_METADATA, TYPE_DYNAMIC_METADATA or TYPE_STRUCTURED_DATA
+         */
+        int getType()
+        {
+            return type;
+        }
+
+        /**
+         * @return the wired metadata field (one of the METADATA_* constants, or null if the identifier names none
+         *         of them) or the dynamic metadata field name. Null for structured data.
+         */
+        String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return the StructuredDataIndex key of the structured data path. Null for metadata, or for an empty
+         *         path.
+         */
+        String getPathKey()
+        {
+            return pathKey;
+        }
+    }
+
+    private FieldIdentifierPlan(List<Field> fields)
+    {
+        this.fields = Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * Gets the plan for the Field IDs parameter, compiling it the first time it is seen.
+     *
+     * @param identifiers the comma-delimited field identifiers
+     * @return the plan
+     */
+    static FieldIdentifierPlan getPlan(String identifiers)
+    {
+        synchronized (PLANS)
+        {
+            FieldIdentifierPlan plan = PLANS.get(identifiers);
+            if (plan == null)
+            {
+                plan = compile(identifiers);
+                PLANS.put(identifiers, plan);
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * @return the compiled fields, in the order they were given
+     */
+    List<Field> getFields()
+    {
+        return fields;
+    }
+
+    /**
+     * Compiles a single field identifier.
+     *
+     * @param identifier the field identifier
+     * @return the compiled field
+     */
+    static Field compileField(String identifier)
+    {
+        if (identifier.contains(AssetFieldsPlugin.CUSTOM_METADATA_TOKEN))
+            return new Field(identifier, TYPE_DYNAMIC_METADATA, getDynamicMetadataName(identifier), null);
+
+        if (identifier.contains(AssetFieldsPlugin.STRUCTURED_DATA_TOKEN))
+            return new Field(identifier, TYPE_STRUCTURED_DATA, null, getStructuredDataPath(identifier));
+
+        return new Field(identifier, TYPE_WIRED_METADATA, getWiredMetadataField(identifier), null);
+    }
+
+    /**
+     * Gets the wired metadata field a field identifier names.
+     *
+     * @param identifier the field identifier, e.g. title
+     * @return one of the METADATA_* constants, or null if the identifier names none of them
+     */
+    static String getWiredMetadataField(String identifier)
+    {
+        for (String wiredField : WIRED_METADATA_FIELDS)
+        {
+            if (identifier.contains(wiredField))
+                return wiredField;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the dynamic metadata field name a field identifier names.
+     *
+     * @param identifier the field identifier, e.g. dynamic-metadata/my-custom-field
+     * @return the field name
+     */
+    static String getDynamicMetadataName(String identifier)
+    {
+        return stripToken(identifier, AssetFieldsPlugin.CUSTOM_METADATA_TOKEN);
+    }
+
+    /**
+     * Gets the structured data path a field identifier names. The system-data-structure token is optional.
+     *
+     * @param identifier the field identifier, e.g. system-data-structure/my-group/my-field or my-group/my-field
+     * @return the path, group identifiers first and the field identifier last
+     */
+    static String[] getStructuredDataPath(String identifier)
+    {
+        if (identifier.contains(AssetFieldsPlugin.STRUCTURED_DATA_TOKEN))
+            return splitPath(stripToken(identifier, AssetFieldsPlugin.STRUCTURED_DATA_TOKEN));
+
+        return splitPath(identifier.startsWith("/") ? identifier.substring(1) : identifier);
+    }
+
+    private static FieldIdentifierPlan compile(String identifiers)
+    {
+        List<Field> fields = new ArrayList<Field>();
+        for (String identifier : identifiers.split(","))
+        {
+            fields.add(compileField(identifier));
+        }
+        return new FieldIdentifierPlan(fields);
+    }
+
+    /**
+     * Removes everything up to and including the token, and a slash following it.
+     */
+    private static String stripToken(String identifier, String token)
+    {
+        String rest = identifier.substring(identifier.indexOf(token) + token.length());
+        return rest.startsWith("/") ? rest.substring(1) : rest;
+    }
+
+    /**
+     * Splits a structured data path into its segments. Empty segments between two slashes are skipped; a
+     * trailing slash leaves an empty field identifier, which matches no field.
+     */
+    private static String[] splitPath(String path)
+    {
+        String[] segments = path.split("/", -1);
+        List<String> nonEmpty = new ArrayList<String>(segments.length);
+        for (int i = 0; i < segments.length; i++)
+        {
+            if (segments[i].length() > 0 || (i == segments.length - 1 && i > 0))
+                nonEmpty.add(segments[i]);
+        }
+        return nonEmpty.toArray(new String[nonEmpty.size()]);
+    }
+}
@@ -0,0 +1,94 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.hannonhill.cascade.api.asset.home.Folder;
+import com.hannonhill.cascade.api.asset.home.FolderContainedAsset;
+import com.hannonhill.cascade.model.dom.identifier.EntityTypes;
+
+/**
+ * A case-insensitive index of the names of a folder's child folders, built with a single pass over its children,
+ * so placing an asset resolves every level of the folder structure with a hash lookup instead of a scan of all
+ * children. Children that are not folders are left out.
+ *
+ * When several child folders have names that only differ in case, the last one in the folder wins, as it did
+ * with the scans this index replaces.
+ *
+ * @since 8.17
+ */
+final class FolderChildIndex
+{
+    private final Map<String, Entry> folders;
+
+    /**
+     * A child folder and its position among the folder's children.
+     */
+    private static final class Entry
+    {
+        private final Folder folder;
+        private final int position;
+
+        private Entry(Folder folder, int position)
+        {
+            this.folder = folder;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Indexes the child folders of the folder.
+     *
+     * @param folder the folder whose children are indexed
+     */
+    FolderChildIndex(Folder folder)
+    {
+        List<FolderContainedAsset> children = folder.getChildren();
+        folders = new HashMap<String, Entry>(children.size() * 2);
+        int position = 0;
+        for (FolderContainedAsset child : children)
+        {
+            if (child.getIdentifer().getType().equals(EntityTypes.TYPE_FOLDER))
+                folders.put(getKey(child.getName()), new Entry((Folder) child, position));
+            position++;
+        }
+    }
+
+    /**
+     * Gets the child folder with the name, ignoring case.
+     *
+     * @param name the name of the child folder
+     * @return the child folder, or null if there is none
+     */
+    Folder get(String name)
+    {
+        Entry entry = folders.get(getKey(name));
+        return entry == null ? null : entry.folder;
+    }
+
+    /**
+     * Gets the child folder with any of the names, ignoring case. If several of the names match, the child folder
+     * that comes last in the folder is returned.
+     *
+     * @param names the names the child folder may have, e.g. "December", "Dec" and "12"
+     * @return the child folder, or null if there is none
+     */
+    Folder getAny(String... names)
+    {
+        Entry match = null;
+        for (String name : names)
+        {
+            Entry entry = folders.get(getKey(name));
+            if (entry != null && (match == null || entry.position > match.position))
+                match = entry;
+        }
+        return match == null ? null : match.folder;
+    }
+
+    private static String getKey(String name)
+    {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
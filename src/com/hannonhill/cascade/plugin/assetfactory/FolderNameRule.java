@@ -0,0 +1,278 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The regular expression folder names must match for FriendlyFolderNamePlugin, compiled once and cached by the
+ * parameter value.
+ *
+ * Names are matched with a budget: the expression may read at most MAX_STEPS characters of the name and take at
+ * most MAX_TIME, after which the match is abandoned with a BudgetExceededException. A pathological expression
+ * (e.g. catastrophic backtracking on "(a+)+b") then fails the one name quickly instead of pinning a request
+ * thread.
+ *
+ * validate(Iterable) checks many names in one pass and suggests a conforming name for each one that does not
+ * match, by trying a few progressively stricter clean-ups of it (collapsed whitespace, lower case, spaces
+ * replaced with dashes or underscores, and finally only unaccented letters, digits, dashes and underscores).
+ *
+ * @since 8.17
+ */
+final class FolderNameRule
+{
+    /** The most characters a match may read, counting every time backtracking reads one again */
+    private static final long MAX_STEPS = 1000000;
+
+    /** The longest a match may take, in nanoseconds */
+    private static final long MAX_TIME = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** The clock is only checked every this many steps, since reading it costs more than a step */
+    private static final int CLOCK_INTERVAL = 1024;
+
+    /** The most rules cached at once */
+    private static final int MAX_RULES = 64;
+
+    private static final Map<String, FolderNameRule> RULES = new LinkedHashMap<String, FolderNameRule>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FolderNameRule> eldest)
+        {
+            return size() > MAX_RULES;
+        }
+    };
+
+    /** Characters dropped by the strictest suggestions */
+    private static final Pattern UNSAFE_CHARACTERS = Pattern.compile("[^a-z0-9 _-]");
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final String regex;
+    private final Pattern pattern;
+
+    /**
+     * Thrown when matching a name exceeds the budget.
+     */
+    static final class BudgetExceededException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        private BudgetExceededException(String message)
+        {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown from inside the regular expression engine, which only lets unchecked exceptions through, and
+     * turned into a BudgetExceededException by matches(String).
+     */
+    private static final class BudgetExceededError extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private BudgetExceededError(String message)
+        {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * A view of the name that counts every character the regular expression engine reads and stops the match
+     * once the budget is used up.
+     */
+    private static final class GuardedCharSequence implements CharSequence
+    {
+        private final String value;
+        private final long deadline;
+        private long steps;
+
+        private GuardedCharSequence(String value, long deadline)
+        {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        public char charAt(int index)
+        {
+            if (++steps > MAX_STEPS)
+                throw new BudgetExceededError("the match took more than " + MAX_STEPS + " steps");
+            if (steps % CLOCK_INTERVAL == 0 && System.nanoTime() - deadline > 0)
+                throw new BudgetExceededError("the match took more than " + TimeUnit.NANOSECONDS.toMillis(MAX_TIME) + "ms");
+            return value.charAt(index);
+        }
+
+        public int length()
+        {
+            return value.length();
+        }
+
+        public CharSequence subSequence(int start, int end)
+        {
+            return value.subSequence(start, end);
+        }
+
+        @Override
+        public String toString()
+        {
+            return value;
+        }
+    }
+
+    private FolderNameRule(String regex)
+    {
+        this.regex = regex;
+        this.pattern = Pattern.compile(regex);
+    }
+
+    /**
+     * Gets the rule for the regular expression, compiling it the first time it is seen.
+     *
+     * @param regex the regular expression folder names must match
+     * @return the rule
+     * @throws PatternSyntaxException if the regular expression is invalid
+     */
+    static FolderNameRule getRule(String regex)
+    {
+        synchronized (RULES)
+        {
+            FolderNameRule rule = RULES.get(regex);
+            if (rule == null)
+            {
+                rule = new FolderNameRule(regex);
+                RULES.put(regex, rule);
+            }
+            return rule;
+        }
+    }
+
+    /**
+     * Checks whether the whole name matches the regular expression.
+     *
+     * @param name the folder name
+     * @return true if the name matches
+     * @throws BudgetExceededException if the match was abandoned because it took too long
+     */
+    boolean matches(String name) throws BudgetExceededException
+    {
+        try
+        {
+            return pattern.matcher(new GuardedCharSequence(name, System.nanoTime() + MAX_TIME)).matches();
+        }
+        catch (BudgetExceededError e)
+        {
+            throw new BudgetExceededException("Unable to match \"" + name + "\" against " + regex + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks every name, suggesting a conforming name for each one that does not match. Names that appear more
+     * than once are only checked the first time.
+     *
+     * @param names the candidate folder names
+     * @return a verdict for each name, in the same order
+     */
+    List<FolderNameVerdict> validate(Iterable<String> names)
+    {
+        List<FolderNameVerdict> verdicts = new ArrayList<FolderNameVerdict>();
+        Map<String, FolderNameVerdict> checked = new HashMap<String, FolderNameVerdict>();
+        for (String name : names)
+        {
+            FolderNameVerdict verdict = checked.get(name);
+            if (verdict == null)
+            {
+                verdict = validate(name);
+                checked.put(name, verdict);
+            }
+            verdicts.add(verdict);
+        }
+        return verdicts;
+    }
+
+    /**
+     * Checks one name the way FriendlyFolderNamePlugin does, where an empty name is not checked at all.
+     */
+    private FolderNameVerdict validate(String name)
+    {
+        if (name == null || name.length() == 0)
+            return new FolderNameVerdict(name, FolderNameVerdict.STATUS_VALID, name);
+
+        String status;
+        try
+        {
+            if (matches(name))
+                return new FolderNameVerdict(name, FolderNameVerdict.STATUS_VALID, name);
+            status = FolderNameVerdict.STATUS_INVALID;
+        }
+        catch (BudgetExceededException e)
+        {
+            status = FolderNameVerdict.STATUS_UNCHECKED;
+        }
+        return new FolderNameVerdict(name, status, suggest(name));
+    }
+
+    /**
+     * @return the first clean-up of the name that matches, or null if none of them do
+     */
+    private String suggest(String name)
+    {
+        String collapsed = WHITESPACE.matcher(name.trim()).replaceAll(" ");
+        String lower = collapsed.toLowerCase();
+        String ascii = Normalizer.normalize(lower, Normalizer.Form.NFD);
+        ascii = UNSAFE_CHARACTERS.matcher(ACCENTS.matcher(ascii).replaceAll("")).replaceAll("").trim();
+
+        String[] candidates = new String[]
+        {
+            collapsed, lower, lower.replace(' ', '-'), lower.replace(' ', '_'), joinWords(ascii, '-'), joinWords(ascii, '_')
+        };
+        for (String candidate : candidates)
+        {
+            if (candidate.length() == 0 || candidate.equals(name))
+                continue;
+
+            try
+            {
+                if (matches(candidate))
+                    return candidate;
+            }
+            catch (BudgetExceededException e)
+            {
+                // not a usable suggestion, try the next one
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Joins the space separated words with the separator, collapsing runs of separators and dropping them from
+     * both ends.
+     */
+    private static String joinWords(String words, char separator)
+    {
+        StringBuilder joined = new StringBuilder(words.length());
+        for (int i = 0; i < words.length(); i++)
+        {
+            char c = words.charAt(i);
+            if (c == ' ' || c == '-' || c == '_')
+            {
+                if (joined.length() > 0 && joined.charAt(joined.length() - 1) != separator)
+                    joined.append(separator);
+            }
+            else
+            {
+                joined.append(c);
+            }
+        }
+        if (joined.length() > 0 && joined.charAt(joined.length() - 1) == separator)
+            joined.setLength(joined.length() - 1);
+        return joined.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+/**
+ * The result of checking one candidate folder name with FriendlyFolderNamePlugin.validateNames(String, Iterable).
+ *
+ * @since 8.17
+ */
+public final class FolderNameVerdict
+{
+    /** The name matches the regular expression */
+    public static final String STATUS_VALID = "valid";
+    /** The name does not match the regular expression */
+    public static final String STATUS_INVALID = "invalid";
+    /** The name could not be checked in time and would not be allowed */
+    public static final String STATUS_UNCHECKED = "unchecked";
+
+    private final String name;
+    private final String status;
+    private final String suggestion;
+
+    FolderNameVerdict(String name, String status, String suggestion)
+    {
+        this.name = name;
+        this.status = status;
+        this.suggestion = suggestion;
+    }
+
+    /**
+     * @return the candidate name as it was given
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return one of STATUS_VALID, STATUS_INVALID or STATUS_UNCHECKED
+     */
+    public String getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return true if a folder could be created with this name
+     */
+    public boolean isValid()
+    {
+        return STATUS_VALID.equals(status);
+    }
+
+    /**
+     * @return a similar name that does match the regular expression, the name itself if it is valid, or null if
+     *         no suggestion could be found
+     */
+    public String getSuggestion()
+    {
+        return suggestion;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " (" + status + (suggestion == null || isValid() ? "" : ", try " + suggestion) + ")";
+    }
+}
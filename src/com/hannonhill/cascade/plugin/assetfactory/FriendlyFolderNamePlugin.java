@@ -1,7 +1,9 @@
 package com.hannonhill.cascade.plugin.assetfactory;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.PatternSyntaxException;
 
 import com.cms.assetfactory.BaseAssetFactoryPlugin;
 import com.cms.assetfactory.PluginException;
@@ -16,6 +18,9 @@ import org.slf4j.LoggerFactory;
  * This plugin is run to restrict creation of a Folder asset based on whether the asset's name matches the given regular 
  * expression.
  *
+ * Migration tooling can check many names against the same rule up front with validateNames(String, Iterable),
+ * without a create request per folder.
+ *
  * @author Ryan Griffith
  * @since 7.12.x
  */
@@ -49,13 +54,54 @@ public class FriendlyFolderNamePlugin extends BaseAssetFactoryPlugin
         {
             String regex = getParameter(PARAM_NAMEREGEX_NAME_KEY);
             String testString = asset.getName();
-            if (StringUtil.isNotEmpty(regex) && StringUtil.isNotEmpty(testString) && !testString.matches(regex))
+            if (StringUtil.isNotEmpty(regex) && StringUtil.isNotEmpty(testString))
             {
-                setAllowCreation(false, "You may only give this folder a name that matches the following regular expression: " + regex);
+                FolderNameRule rule;
+                try
+                {
+                    rule = FolderNameRule.getRule(regex);
+                }
+                catch (PatternSyntaxException e)
+                {
+                    throw new PluginException("The folder name regular expression is invalid: " + e.getMessage(), e);
+                }
+
+                try
+                {
+                    if (!rule.matches(testString))
+                        setAllowCreation(false, "You may only give this folder a name that matches the following regular expression: " + regex);
+                }
+                catch (FolderNameRule.BudgetExceededException e)
+                {
+                    // a name that cannot be checked is not allowed
+                    LOG.warn(e.getMessage());
+                    setAllowCreation(false, "This folder name could not be checked against the following regular expression in time: " + regex);
+                }
             }
         }
     }
 
+    /**
+     * Checks many candidate folder names against the regular expression in one pass, the same way the plugin
+     * checks a single folder on creation. A stream of names can be passed as stream::iterator.
+     *
+     * @param regex the regular expression folder names must match, the value of the plugin's parameter
+     * @param names the candidate folder names
+     * @return a verdict for each name in the same order, with a suggested conforming name where one was found
+     * @throws PluginException if the regular expression is invalid
+     */
+    public static List<FolderNameVerdict> validateNames(String regex, Iterable<String> names) throws PluginException
+    {
+        try
+        {
+            return FolderNameRule.getRule(regex).validate(names);
+        }
+        catch (PatternSyntaxException e)
+        {
+            throw new PluginException("The folder name regular expression is invalid: " + e.getMessage(), e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see com.cms.assetfactory.AssetFactoryPlugin#getDescription()
      */
@@ -0,0 +1,235 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches of the folders AssetFieldsToFolderStructurePlugin has resolved, shared by every instance of the plug-in,
+ * so creating many assets that end up in the same folders does not walk the folder structure again for each of
+ * them:
+ * <ul>
+ * <li>getPathCache() maps a placement folder and the values of all field identifiers to the folder the asset
+ * was placed in.</li>
+ * <li>getDateCache() maps a folder and a date to the day folder below it the date resolved to, which still helps
+ * when the other field values differ, e.g. news items of the same day in different categories.</li>
+ * </ul>
+ *
+ * Only placements that found a folder for every field, down to the day folder of a date, are cached. A placement
+ * that stopped short, e.g. in a month folder because the day folder did not exist yet, would place later assets
+ * too shallow once the missing folder is added, so the plug-in removes its entry instead.
+ *
+ * Entries expire after a few minutes, so folders added to the structure are picked up, and the least recently
+ * used entries are evicted once a cache is full. A cached folder may have been deleted in the meantime, so
+ * callers must still read it and fall back to walking the folder structure when it is gone. Each cache counts
+ * its hits and misses.
+ *
+ * @since 8.17
+ */
+public final class PlacementCache
+{
+    private static final PlacementCache PATHS = new PlacementCache(5 * 60 * 1000, 1000);
+    private static final PlacementCache DATES = new PlacementCache(10 * 60 * 1000, 1000);
+
+    /** How long a folder is cached, in milliseconds */
+    private final long ttl;
+
+    /** The most folders cached at once */
+    private final int maxEntries;
+
+    private final Map<String, Entry> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * A cached folder id and when it was cached.
+     */
+    private static final class Entry
+    {
+        private final String folderId;
+        private final long cachedOn;
+
+        private Entry(String folderId, long cachedOn)
+        {
+            this.folderId = folderId;
+            this.cachedOn = cachedOn;
+        }
+    }
+
+    private PlacementCache(long ttl, int maxEntries)
+    {
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > PlacementCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cache of the folders assets were placed in, by placement folder and field values
+     */
+    public static PlacementCache getPathCache()
+    {
+        return PATHS;
+    }
+
+    /**
+     * @return the cache of the year, month or day folders dates resolved to, by parent folder and date
+     */
+    public static PlacementCache getDateCache()
+    {
+        return DATES;
+    }
+
+    /**
+     * Creates the key of a placement in the path cache.
+     *
+     * @param placementFolderId the id of the folder the asset's placement starts in
+     * @param fieldValues the values of each of the plug-in's field identifiers, in order
+     * @param createDateFolders whether missing date folders are created, which can resolve to a different folder
+     * @return the key
+     */
+    static String createPathKey(String placementFolderId, List<List<String>> fieldValues, boolean createDateFolders)
+    {
+        StringBuilder key = new StringBuilder(placementFolderId).append(createDateFolders ? '+' : '-');
+        for (List<String> values : fieldValues)
+        {
+            // separators that cannot be part of a field value keep ("a,b", "c") apart from ("a", "b,c")
+            key.append('\u0001');
+            for (String value : values)
+            {
+                key.append('\u0002').append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Creates the key of a date in the date cache.
+     *
+     * @param folderId the id of the folder the year folders are looked for in
+     * @param date the date
+     * @param createDateFolders whether missing date folders are created, in which case the date always resolves
+     *        to a day folder
+     * @return the key
+     */
+    static String createDateKey(String folderId, DateComponents date, boolean createDateFolders)
+    {
+        return folderId + (createDateFolders ? '+' : '-') + date.getIsoDate();
+    }
+
+    /**
+     * Gets the cached folder, unless it has expired.
+     *
+     * @param key the key, as returned by createPathKey or createDateKey
+     * @return the id of the folder, or null if it is not cached
+     */
+    String get(String key)
+    {
+        long now = System.currentTimeMillis();
+        synchronized (entries)
+        {
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.cachedOn >= ttl)
+            {
+                entries.remove(key);
+                entry = null;
+            }
+
+            if (entry == null)
+            {
+                missCount.incrementAndGet();
+                return null;
+            }
+
+            hitCount.incrementAndGet();
+            return entry.folderId;
+        }
+    }
+
+    /**
+     * Caches the folder.
+     *
+     * @param key the key, as returned by createPathKey or createDateKey
+     * @param folderId the id of the folder
+     */
+    void put(String key, String folderId)
+    {
+        long now = System.currentTimeMillis();
+        synchronized (entries)
+        {
+            entries.put(key, new Entry(folderId, now));
+            removeExpired(now);
+        }
+    }
+
+    /**
+     * Removes the cached folder, e.g. because it no longer exists. The lookup that returned it is counted as a
+     * miss instead of a hit.
+     *
+     * @param key the key, as returned by createPathKey or createDateKey
+     */
+    void remove(String key)
+    {
+        synchronized (entries)
+        {
+            if (entries.remove(key) != null)
+            {
+                hitCount.decrementAndGet();
+                missCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from the cache since startup
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups that had to walk the folder structure since startup
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * @return the share of lookups answered from the cache since startup, between 0 and 1
+     */
+    public double getHitRate()
+    {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Drops the expired entries, oldest first, stopping at the first entry that has not expired. Entries are
+     * kept in least recently used order, so an expired entry that was used recently is only dropped when it is
+     * looked up or evicted. Must be called while holding the entries lock.
+     */
+    private void removeExpired(long now)
+    {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext())
+        {
+            if (now - it.next().cachedOn < ttl)
+                break;
+            it.remove();
+        }
+    }
+}
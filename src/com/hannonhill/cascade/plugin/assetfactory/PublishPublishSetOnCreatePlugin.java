@@ -3,24 +3,26 @@ package com.hannonhill.cascade.plugin.assetfactory;
 import com.cms.assetfactory.BaseAssetFactoryPlugin;
 import com.cms.assetfactory.PluginException;
 import com.hannonhill.cascade.api.asset.admin.AssetFactory;
-import com.hannonhill.cascade.api.asset.common.Identifier;
 import com.hannonhill.cascade.api.asset.home.FolderContainedAsset;
-import com.hannonhill.cascade.api.operation.Publish;
-import com.hannonhill.cascade.api.operation.exception.ModelOperationException;
-import com.hannonhill.cascade.api.operation.exception.OperationValidationException;
-import com.hannonhill.cascade.model.dom.identifier.EntityType;
-import com.hannonhill.cascade.model.dom.identifier.EntityTypes;
 import com.hannonhill.commons.util.StringUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This plugin is run to automatically set the review date of an asset before the initial
- * user edit screen is displayed, hence the user does not even need to worry about setting
- * the review date if so desired.
+ * This plugin is run to automatically publish one or more Publish Sets once an asset has been created.
+ *
+ * Each publish is handed to PublishSetQueue and happens in the background once the "Publish Delay" has passed,
+ * so assets created in quick succession, such as during a bulk import, share a single publish. The Publish Sets
+ * are published concurrently, at most "Publish Parallelism" of this Asset Factory's publishes at a time, whatever
+ * other Asset Factories are configured with. Every destination of a Publish Set is published, since the API
+ * cannot limit a publish to some of them. Each configured id is checked by PublishSetResolver first, so a Publish
+ * Set that cannot be read fails the create right away.
  *
  * @author Ryan Griffith
  * @since 7.4.x
@@ -34,34 +36,14 @@ public class PublishPublishSetOnCreatePlugin extends BaseAssetFactoryPlugin
 
     private static final String PARAM_PUBLISHSET_ID_NAME_KEY = "plugin.assetfactory.publishpublishsetoncreate.param.publishset.id.name";
     private static final String PARAM_PUBLISHSET_ID_DESCRIPTION_KEY = "plugin.assetfactory.publishpublishsetoncreate.param.publishset.id.description";
+    private static final String PARAM_DEBOUNCE_NAME_KEY = "plugin.assetfactory.publishpublishsetoncreate.param.debounce.name";
+    private static final String PARAM_DEBOUNCE_DESCRIPTION_KEY = "plugin.assetfactory.publishpublishsetoncreate.param.debounce.description";
+    private static final String PARAM_PARALLELISM_NAME_KEY = "plugin.assetfactory.publishpublishsetoncreate.param.parallelism.name";
+    private static final String PARAM_PARALLELISM_DESCRIPTION_KEY = "plugin.assetfactory.publishpublishsetoncreate.param.parallelism.description";
 
-    /**
-     * An identifier
-     * 
-     * @author Ryan Griffith
-     */
-    private class IdentifierImpl implements Identifier
-    {
-        private final String id;
-        private final EntityType type;
-
-        public IdentifierImpl(String id, EntityType type)
-        {
-            this.id = id;
-            this.type = type;
-        }
-
-        public String getId()
-        {
-            return id;
-        }
+    /** The debounce window used when none is configured, in seconds */
+    private static final int DEFAULT_DEBOUNCE = 5;
 
-        public EntityType getType()
-        {
-            return type;
-        }
-    }
-    
     /* (non-Javadoc)
      * @see com.cms.assetfactory.BaseAssetFactoryPlugin#doPluginActionPre(com.hannonhill.cascade.api.asset.admin.AssetFactory, com.hannonhill.cascade.api.asset.home.FolderContainedAsset)
      */
@@ -77,23 +59,94 @@ public class PublishPublishSetOnCreatePlugin extends BaseAssetFactoryPlugin
     @Override
     public void doPluginActionPost(AssetFactory factory, FolderContainedAsset asset) throws PluginException
     {
-        String publishSetId = getParameter(PARAM_PUBLISHSET_ID_NAME_KEY);
-        if (StringUtil.isNotEmpty(publishSetId))
+        Set<String> publishSetIds = getPublishSetIds();
+        if (!publishSetIds.isEmpty())
+        {
+            long debounce = TimeUnit.SECONDS.toMillis(getDebounce());
+            int parallelism = getParallelism();
+            String factoryId = factory.getIdentifer().getId();
+
+            // check every id before queueing any, so a bad configuration does not publish only some of them
+            Set<String> resolvedIds = new LinkedHashSet<String>();
+            for (String publishSetId : publishSetIds)
+                resolvedIds.add(PublishSetResolver.resolve(publishSetId, getUsername()));
+
+            for (String publishSetId : resolvedIds)
+            {
+                LOG.debug("Queueing publish of Publish Set: " + publishSetId);
+                PublishSetQueue.request(publishSetId, getUsername(), debounce, factoryId, parallelism);
+            }
+        }
+    }
+
+    /**
+     * @return the configured Publish Set ids in the order given, without duplicates
+     */
+    private Set<String> getPublishSetIds()
+    {
+        Set<String> publishSetIds = new LinkedHashSet<String>();
+        String publishSetIdsStr = getParameter(PARAM_PUBLISHSET_ID_NAME_KEY);
+        if (StringUtil.isNotEmpty(publishSetIdsStr))
         {
-            Publish publish = new Publish();
-            Identifier toRead = new IdentifierImpl(publishSetId, EntityTypes.TYPE_PUBLISHSET);
-            publish.setMode("publish");
-            publish.setToPublish(toRead);
-            publish.setUsername(getUsername());
-            try {
-                LOG.debug("Attempting to publish Publish Set: " + publishSetId);
-                publish.perform();
-            } catch (ModelOperationException e) {
-                LOG.debug("ModelOperationException: ", e);
-            } catch (OperationValidationException e) {
-                LOG.debug("OperationValidationException: ", e);
+            for (String publishSetId : publishSetIdsStr.split("[,\\s]+"))
+            {
+                if (publishSetId.length() > 0)
+                    publishSetIds.add(publishSetId);
             }
         }
+        return publishSetIds;
+    }
+
+    /**
+     * @return the configured number of this Asset Factory's publishes run at once, or
+     *         PublishSetQueue.DEFAULT_PARALLELISM if none is configured
+     * @throws PluginException if the configured value is not an integer between 1 and
+     *         PublishSetQueue.MAX_PARALLELISM
+     */
+    private int getParallelism() throws PluginException
+    {
+        String parallelism = getParameter(PARAM_PARALLELISM_NAME_KEY);
+        if (StringUtil.isEmptyTrimmed(parallelism))
+            return PublishSetQueue.DEFAULT_PARALLELISM;
+
+        try
+        {
+            int threads = Integer.parseInt(parallelism.trim());
+            if (threads < 1 || threads > PublishSetQueue.MAX_PARALLELISM)
+            {
+                throw new NumberFormatException("The value must be between 1 and " + PublishSetQueue.MAX_PARALLELISM + ".");
+            }
+            return threads;
+        }
+        catch (NumberFormatException e)
+        {
+            throw new PluginException("PublishPublishSetOnCreatePlugin parameter publish parallelism is malformed. Must be an integer: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the configured debounce window in seconds, or DEFAULT_DEBOUNCE if none is configured
+     * @throws PluginException if the configured value is not a non-negative integer
+     */
+    private int getDebounce() throws PluginException
+    {
+        String debounce = getParameter(PARAM_DEBOUNCE_NAME_KEY);
+        if (StringUtil.isEmptyTrimmed(debounce))
+            return DEFAULT_DEBOUNCE;
+
+        try
+        {
+            int seconds = Integer.parseInt(debounce.trim());
+            if (seconds < 0)
+            {
+                throw new NumberFormatException("The value must be non-negative.");
+            }
+            return seconds;
+        }
+        catch (NumberFormatException e)
+        {
+            throw new PluginException("PublishPublishSetOnCreatePlugin parameter publish delay is malformed. Must be an integer: " + e.getMessage(), e);
+        }
     }
 
     /* (non-Javadoc)
@@ -117,8 +170,10 @@ public class PublishPublishSetOnCreatePlugin extends BaseAssetFactoryPlugin
      */
     public Map<String, String> getAvailableParameterDescriptions()
     {
-        Map<String, String> toRet = new HashMap<String, String>(1);
+        Map<String, String> toRet = new HashMap<String, String>(3);
         toRet.put(PARAM_PUBLISHSET_ID_NAME_KEY, PARAM_PUBLISHSET_ID_DESCRIPTION_KEY);
+        toRet.put(PARAM_DEBOUNCE_NAME_KEY, PARAM_DEBOUNCE_DESCRIPTION_KEY);
+        toRet.put(PARAM_PARALLELISM_NAME_KEY, PARAM_PARALLELISM_DESCRIPTION_KEY);
         return toRet;
     }
 
@@ -129,7 +184,7 @@ public class PublishPublishSetOnCreatePlugin extends BaseAssetFactoryPlugin
     {
         return new String[]
         {
-            PARAM_PUBLISHSET_ID_NAME_KEY
+            PARAM_PUBLISHSET_ID_NAME_KEY, PARAM_DEBOUNCE_NAME_KEY, PARAM_PARALLELISM_NAME_KEY
         };
     }
 }
\ No newline at end of file
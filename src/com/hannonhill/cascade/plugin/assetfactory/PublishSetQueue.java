@@ -0,0 +1,404 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hannonhill.cascade.api.asset.common.Identifier;
+import com.hannonhill.cascade.api.operation.Publish;
+import com.hannonhill.cascade.api.operation.exception.ModelOperationException;
+import com.hannonhill.cascade.api.operation.exception.OperationValidationException;
+import com.hannonhill.cascade.model.dom.identifier.EntityType;
+import com.hannonhill.cascade.model.dom.identifier.EntityTypes;
+
+/**
+ * The background queue PublishPublishSetOnCreatePlugin hands its publishes to, so that creating many assets in a
+ * row publishes their Publish Set once instead of once per asset.
+ *
+ * A request waits for the debounce window before it is published. Any request for the same Publish Set by the
+ * same user that arrives in the meantime is coalesced into it. Once a publish has started, a new request queues
+ * a new publish so the assets created since are not missed. Publishes that fail are retried with exponential
+ * backoff, and every attempt is recorded in PublishSetRegistry.
+ *
+ * A single timer thread waits out debounce windows and retry delays, and hands due publishes to a separate pool
+ * of publishers, so a slow Publish Set never holds up the timers or the create request. At most MAX_PENDING
+ * publishes wait for their debounce window at once; past that, requests skip the window and go to the publishers
+ * straight away. A publish is never run on the thread that requested it: when the publishers are also MAX_PENDING
+ * publishes behind, the timer tries handing the publish over again later, and after MAX_ATTEMPTS such tries the
+ * publish is given up on and recorded as failed.
+ *
+ * The pool has MAX_PARALLELISM threads shared by every Asset Factory, and each Asset Factory separately limits how
+ * many of its own publishes run at once, so one factory's limit never changes another's. A publish coalesced from
+ * requests made by several Asset Factories counts against the factory that requested it first.
+ *
+ * @since 8.17
+ */
+public final class PublishSetQueue
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PublishSetQueue.class);
+
+    /** The most publishes waiting for their debounce window at once */
+    private static final int MAX_PENDING = 100;
+
+    /** The number of times a publish is attempted before it is given up on */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** The delay before the first retry of a failed publish, in milliseconds, doubled for every further retry */
+    private static final long RETRY_DELAY = 2000;
+
+    private static final AtomicLong REQUESTED = new AtomicLong();
+    private static final AtomicLong EXECUTED = new AtomicLong();
+    private static final AtomicLong FAILED = new AtomicLong();
+    private static final AtomicInteger WORKER_COUNT = new AtomicInteger();
+
+    private static final String TIMER_THREAD_NAME = "PublishSetQueue-timer";
+
+    /** The number of publishes an Asset Factory runs at once unless it is configured otherwise */
+    static final int DEFAULT_PARALLELISM = 2;
+
+    /** The most threads that may publish at once, across every Asset Factory */
+    static final int MAX_PARALLELISM = 8;
+
+    /** How long a publish waits before trying again when its Asset Factory is at its limit, in milliseconds */
+    private static final long LIMIT_DELAY = 500;
+
+    /** The most Asset Factories whose limits are kept at once */
+    private static final int MAX_LIMITS = 256;
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+    {
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, TIMER_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final ThreadPoolExecutor PUBLISHERS = new ThreadPoolExecutor(MAX_PARALLELISM, MAX_PARALLELISM, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_PENDING), new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "PublishSetQueue-publisher-" + WORKER_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new RejectedExecutionHandler()
+            {
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+                {
+                    // the caller may be a create request, so never publish here; try again once the publishers
+                    // have caught up
+                    if (!executor.isShutdown())
+                        ((PendingPublish) r).defer();
+                }
+            });
+
+    /**
+     * Hands a publish from the timer to the publishers.
+     */
+    private static final class Handoff implements Runnable
+    {
+        private final PendingPublish publish;
+
+        private Handoff(PendingPublish publish)
+        {
+            this.publish = publish;
+        }
+
+        public void run()
+        {
+            PUBLISHERS.execute(publish);
+        }
+    }
+
+    /**
+     * How many publishes one Asset Factory may run at once.
+     */
+    private static final class Limit
+    {
+        private final int parallelism;
+        private final Semaphore permits;
+
+        private Limit(int parallelism)
+        {
+            this.parallelism = parallelism;
+            this.permits = new Semaphore(parallelism);
+        }
+    }
+
+    /** The limits of the Asset Factories, keyed by Asset Factory id */
+    private static final Map<String, Limit> LIMITS = new LinkedHashMap<String, Limit>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Limit> eldest)
+        {
+            return size() > MAX_LIMITS;
+        }
+    };
+
+    /** Publishes waiting for their debounce window, keyed by Publish Set id and username */
+    private static final Map<String, PendingPublish> PENDING = new LinkedHashMap<String, PendingPublish>();
+
+    /**
+     * One publish of a Publish Set, standing in for every request coalesced into it.
+     */
+    private static final class PendingPublish implements Runnable
+    {
+        private final String key;
+        private final String publishSetId;
+        private final String username;
+        /** The limit of the Asset Factory that requested the publish first */
+        private final Limit limit;
+        private int requests = 1;
+        private int attempts;
+        private int deferrals;
+
+        private PendingPublish(String key, String publishSetId, String username, Limit limit)
+        {
+            this.key = key;
+            this.publishSetId = publishSetId;
+            this.username = username;
+            this.limit = limit;
+        }
+
+        /**
+         * Ends the debounce window, so later requests start a new publish, and hands the publish to the
+         * publishers.
+         */
+        private void dispatch()
+        {
+            synchronized (PENDING)
+            {
+                if (PENDING.get(key) == this)
+                    PENDING.remove(key);
+            }
+            EXECUTED.incrementAndGet();
+            LOG.debug("Publishing Publish Set " + publishSetId + " for " + requests + " request(s)");
+            PUBLISHERS.execute(this);
+        }
+
+        /**
+         * Hands the publish to the publishers again later because they are too far behind, or gives up on it if
+         * that has already been tried MAX_ATTEMPTS times.
+         */
+        private synchronized void defer()
+        {
+            deferrals++;
+            if (deferrals <= MAX_ATTEMPTS)
+            {
+                long delay = RETRY_DELAY << (deferrals - 1);
+                LOG.debug("Too many publishes are queued, handing Publish Set " + publishSetId + " over again in " + delay + "ms");
+                SCHEDULER.schedule(new Handoff(this), delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            RejectedExecutionException e = new RejectedExecutionException("Too many publishes are queued");
+            PublishSetRegistry.recordFailure(publishSetId, 0, e);
+            FAILED.incrementAndGet();
+            LOG.warn("Unable to publish Publish Set " + publishSetId + " after handing it over " + deferrals + " times", e);
+        }
+
+        public void run()
+        {
+            if (!limit.permits.tryAcquire())
+            {
+                // the Asset Factory already runs as many publishes as it may, so wait for one of them to finish
+                SCHEDULER.schedule(new Handoff(this), LIMIT_DELAY, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            try
+            {
+                attempt();
+            }
+            finally
+            {
+                limit.permits.release();
+            }
+        }
+
+        private void attempt()
+        {
+            attempts++;
+            long start = System.currentTimeMillis();
+            try
+            {
+                publish(publishSetId, username);
+                PublishSetRegistry.recordSuccess(publishSetId, System.currentTimeMillis() - start);
+            }
+            catch (ModelOperationException e)
+            {
+                PublishSetRegistry.recordFailure(publishSetId, System.currentTimeMillis() - start, e);
+                if (attempts < MAX_ATTEMPTS)
+                {
+                    long delay = RETRY_DELAY << (attempts - 1);
+                    LOG.debug("Publishing Publish Set " + publishSetId + " failed, retrying in " + delay + "ms", e);
+                    SCHEDULER.schedule(new Handoff(this), delay, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                FAILED.incrementAndGet();
+                LOG.warn("Unable to publish Publish Set " + publishSetId + " after " + attempts + " attempts", e);
+            }
+            catch (OperationValidationException e)
+            {
+                // the same publish would fail the same way again, but the Publish Set may have changed since it
+                // was resolved, so the next create checks it again
+                PublishSetRegistry.recordFailure(publishSetId, System.currentTimeMillis() - start, e);
+                PublishSetResolver.invalidate(publishSetId, username);
+                FAILED.incrementAndGet();
+                LOG.warn("Unable to publish Publish Set " + publishSetId, e);
+            }
+            catch (RuntimeException e)
+            {
+                PublishSetRegistry.recordFailure(publishSetId, System.currentTimeMillis() - start, e);
+                FAILED.incrementAndGet();
+                LOG.error("Unable to publish Publish Set " + publishSetId, e);
+            }
+        }
+    }
+
+    private PublishSetQueue()
+    {
+    }
+
+    /**
+     * Requests a publish of the Publish Set, coalescing it with any publish of the same Publish Set by the same
+     * user still waiting for its debounce window.
+     *
+     * @param publishSetId the id of the Publish Set
+     * @param username the user the Publish Set is published as
+     * @param debounce how long to wait for further requests before publishing, in milliseconds
+     * @param factoryId the id of the Asset Factory requesting the publish
+     * @param parallelism the number of publishes the Asset Factory may run at once, between 1 and MAX_PARALLELISM
+     */
+    static void request(String publishSetId, String username, long debounce, String factoryId, int parallelism)
+    {
+        if (parallelism < 1 || parallelism > MAX_PARALLELISM)
+            throw new IllegalArgumentException("The parallelism must be between 1 and " + MAX_PARALLELISM + ": " + parallelism);
+
+        REQUESTED.incrementAndGet();
+        String key = publishSetId + "|" + username;
+        PendingPublish pending;
+        synchronized (PENDING)
+        {
+            pending = PENDING.get(key);
+            if (pending != null)
+            {
+                pending.requests++;
+                return;
+            }
+
+            if (PENDING.size() < MAX_PENDING)
+            {
+                pending = new PendingPublish(key, publishSetId, username, getLimit(factoryId, parallelism));
+                PENDING.put(key, pending);
+            }
+        }
+
+        if (pending != null)
+        {
+            final PendingPublish scheduled = pending;
+            SCHEDULER.schedule(new Runnable()
+            {
+                public void run()
+                {
+                    scheduled.dispatch();
+                }
+            }, debounce, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            LOG.debug("Too many publishes are waiting, publishing Publish Set " + publishSetId + " without waiting for more requests");
+            new PendingPublish(key, publishSetId, username, getLimit(factoryId, parallelism)).dispatch();
+        }
+    }
+
+    /**
+     * Gets the limit of the Asset Factory, replacing it if the Asset Factory has been configured with a different
+     * parallelism since. Publishes already holding a permit of the old limit release it there.
+     */
+    private static Limit getLimit(String factoryId, int parallelism)
+    {
+        synchronized (LIMITS)
+        {
+            Limit limit = LIMITS.get(factoryId);
+            if (limit == null || limit.parallelism != parallelism)
+            {
+                limit = new Limit(parallelism);
+                LIMITS.put(factoryId, limit);
+            }
+            return limit;
+        }
+    }
+
+    /**
+     * @return the number of publishes requested since startup
+     */
+    public static long getRequestedCount()
+    {
+        return REQUESTED.get();
+    }
+
+    /**
+     * @return the number of publishes actually started since startup, after coalescing
+     */
+    public static long getExecutedCount()
+    {
+        return EXECUTED.get();
+    }
+
+    /**
+     * @return the number of publishes given up on since startup
+     */
+    public static long getFailedCount()
+    {
+        return FAILED.get();
+    }
+
+    /**
+     * @return the number of publishes waiting for their debounce window
+     */
+    public static int getPendingCount()
+    {
+        synchronized (PENDING)
+        {
+            return PENDING.size();
+        }
+    }
+
+    private static void publish(final String publishSetId, String username) throws ModelOperationException, OperationValidationException
+    {
+        Publish publish = new Publish();
+        publish.setMode("publish");
+        publish.setToPublish(new Identifier()
+        {
+            public String getId()
+            {
+                return publishSetId;
+            }
+
+            public EntityType getType()
+            {
+                return EntityTypes.TYPE_PUBLISHSET;
+            }
+        });
+        publish.setUsername(username);
+        publish.perform();
+    }
+}
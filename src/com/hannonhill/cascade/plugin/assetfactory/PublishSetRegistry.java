@@ -0,0 +1,203 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of how the background publishes of each Publish Set went, so slow or failing Publish Sets can be
+ * spotted without reading the logs. Every attempt is recorded, including retries.
+ *
+ * @since 8.17
+ */
+public final class PublishSetRegistry
+{
+    /** The statistics of each Publish Set, keyed by its id */
+    private static final Map<String, Statistics> STATISTICS = new TreeMap<String, Statistics>();
+
+    /**
+     * The publishes of one Publish Set since startup.
+     */
+    public static final class Statistics
+    {
+        private final String publishSetId;
+        private long successCount;
+        private long failureCount;
+        private long totalLatency;
+        private long lastLatency;
+        private long maxLatency;
+        private Date lastPublishedOn;
+        private String lastError;
+        private Date lastErrorOn;
+
+        private Statistics(String publishSetId)
+        {
+            this.publishSetId = publishSetId;
+        }
+
+        private Statistics(Statistics other)
+        {
+            this.publishSetId = other.publishSetId;
+            this.successCount = other.successCount;
+            this.failureCount = other.failureCount;
+            this.totalLatency = other.totalLatency;
+            this.lastLatency = other.lastLatency;
+            this.maxLatency = other.maxLatency;
+            this.lastPublishedOn = other.lastPublishedOn;
+            this.lastError = other.lastError;
+            this.lastErrorOn = other.lastErrorOn;
+        }
+
+        public String getPublishSetId()
+        {
+            return publishSetId;
+        }
+
+        public long getSuccessCount()
+        {
+            return successCount;
+        }
+
+        public long getFailureCount()
+        {
+            return failureCount;
+        }
+
+        /**
+         * @return how long the most recent attempt took, in milliseconds
+         */
+        public long getLastLatency()
+        {
+            return lastLatency;
+        }
+
+        /**
+         * @return how long attempts took on average, in milliseconds, or 0 if there were none
+         */
+        public long getAverageLatency()
+        {
+            long count = successCount + failureCount;
+            return count == 0 ? 0 : totalLatency / count;
+        }
+
+        /**
+         * @return how long the slowest attempt took, in milliseconds
+         */
+        public long getMaxLatency()
+        {
+            return maxLatency;
+        }
+
+        /**
+         * @return when the Publish Set was last published successfully, or null if it never was
+         */
+        public Date getLastPublishedOn()
+        {
+            return lastPublishedOn;
+        }
+
+        /**
+         * @return the message of the error the most recent failed attempt ended with, or null if none failed
+         */
+        public String getLastError()
+        {
+            return lastError;
+        }
+
+        /**
+         * @return when the most recent failed attempt ended, or null if none failed
+         */
+        public Date getLastErrorOn()
+        {
+            return lastErrorOn;
+        }
+
+        @Override
+        public String toString()
+        {
+            return publishSetId + " (" + successCount + " succeeded, " + failureCount + " failed, average " + getAverageLatency() + "ms"
+                    + (lastError == null ? "" : ", last error: " + lastError) + ")";
+        }
+    }
+
+    private PublishSetRegistry()
+    {
+    }
+
+    /**
+     * Records a successful publish attempt.
+     *
+     * @param publishSetId the id of the Publish Set
+     * @param latency how long the attempt took, in milliseconds
+     */
+    static void recordSuccess(String publishSetId, long latency)
+    {
+        synchronized (STATISTICS)
+        {
+            Statistics statistics = record(publishSetId, latency);
+            statistics.successCount++;
+            statistics.lastPublishedOn = new Date();
+        }
+    }
+
+    /**
+     * Records a failed publish attempt.
+     *
+     * @param publishSetId the id of the Publish Set
+     * @param latency how long the attempt took, in milliseconds
+     * @param error what the attempt failed with
+     */
+    static void recordFailure(String publishSetId, long latency, Throwable error)
+    {
+        synchronized (STATISTICS)
+        {
+            Statistics statistics = record(publishSetId, latency);
+            statistics.failureCount++;
+            statistics.lastError = error.getMessage() == null ? error.getClass().getName() : error.getMessage();
+            statistics.lastErrorOn = new Date();
+        }
+    }
+
+    /**
+     * @param publishSetId the id of the Publish Set
+     * @return a snapshot of the statistics of the Publish Set, or null if it has not been published yet
+     */
+    public static Statistics getStatistics(String publishSetId)
+    {
+        synchronized (STATISTICS)
+        {
+            Statistics statistics = STATISTICS.get(publishSetId);
+            return statistics == null ? null : new Statistics(statistics);
+        }
+    }
+
+    /**
+     * @return a snapshot of the statistics of every Publish Set published since startup, ordered by id
+     */
+    public static List<Statistics> getAllStatistics()
+    {
+        synchronized (STATISTICS)
+        {
+            List<Statistics> all = new ArrayList<Statistics>(STATISTICS.size());
+            for (Statistics statistics : STATISTICS.values())
+                all.add(new Statistics(statistics));
+            return all;
+        }
+    }
+
+    private static Statistics record(String publishSetId, long latency)
+    {
+        Statistics statistics = STATISTICS.get(publishSetId);
+        if (statistics == null)
+        {
+            statistics = new Statistics(publishSetId);
+            STATISTICS.put(publishSetId, statistics);
+        }
+        statistics.lastLatency = latency;
+        statistics.totalLatency += latency;
+        statistics.maxLatency = Math.max(statistics.maxLatency, latency);
+        return statistics;
+    }
+}
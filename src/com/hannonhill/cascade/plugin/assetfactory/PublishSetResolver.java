@@ -0,0 +1,178 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cms.assetfactory.PluginException;
+import com.hannonhill.cascade.api.asset.common.BaseAsset;
+import com.hannonhill.cascade.api.asset.common.Identifier;
+import com.hannonhill.cascade.api.operation.Read;
+import com.hannonhill.cascade.api.operation.result.ReadOperationResult;
+import com.hannonhill.cascade.model.dom.identifier.EntityType;
+import com.hannonhill.cascade.model.dom.identifier.EntityTypes;
+
+/**
+ * Checks the Publish Set ids configured for PublishPublishSetOnCreatePlugin by reading each Publish Set once, and
+ * remembers the outcome, so a mistyped id is reported on the create request that uses it instead of failing
+ * quietly in the background publish, and a valid id is not read again on every create.
+ *
+ * The read runs as the user creating the asset, whose permissions decide whether the Publish Set can be read,
+ * so outcomes are remembered per id and user. Valid ids are remembered for VALID_TTL milliseconds and invalid
+ * ones for the shorter INVALID_TTL, so a corrected Publish Set is picked up soon. At most MAX_ENTRIES outcomes
+ * are kept, the least recently used being evicted first.
+ *
+ * @since 8.17
+ */
+final class PublishSetResolver
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PublishSetResolver.class);
+
+    /** How long a valid id is remembered, in milliseconds */
+    private static final long VALID_TTL = 5 * 60 * 1000;
+
+    /** How long an invalid id is remembered, in milliseconds */
+    private static final long INVALID_TTL = 60 * 1000;
+
+    /** The most outcomes remembered at once */
+    private static final int MAX_ENTRIES = 256;
+
+    private static final Map<String, Entry> ENTRIES = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+        {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * The outcome of reading one Publish Set and when it expires.
+     */
+    private static final class Entry
+    {
+        /** The id of the Publish Set as read, or null if it could not be read */
+        private final String resolvedId;
+        /** Why the Publish Set could not be read, or null if it could */
+        private final String error;
+        private final long expiresOn;
+
+        private Entry(String resolvedId, String error, long expiresOn)
+        {
+            this.resolvedId = resolvedId;
+            this.error = error;
+            this.expiresOn = expiresOn;
+        }
+    }
+
+    private PublishSetResolver()
+    {
+    }
+
+    /**
+     * Resolves the Publish Set id, reading the Publish Set as the user unless the outcome of an earlier read by
+     * the same user is still remembered.
+     *
+     * @param publishSetId the configured Publish Set id
+     * @param username the user creating the asset
+     * @return the id of the Publish Set as read
+     * @throws PluginException if no Publish Set with the id could be read
+     */
+    static String resolve(String publishSetId, String username) throws PluginException
+    {
+        long now = System.currentTimeMillis();
+        String key = getKey(publishSetId, username);
+        Entry entry;
+        synchronized (ENTRIES)
+        {
+            entry = ENTRIES.get(key);
+        }
+
+        if (entry == null || now >= entry.expiresOn)
+        {
+            entry = read(publishSetId, username, now);
+            synchronized (ENTRIES)
+            {
+                ENTRIES.put(key, entry);
+                removeExpired(now);
+            }
+        }
+
+        if (entry.error != null)
+            throw new PluginException("PublishPublishSetOnCreatePlugin parameter Publish Set ID is invalid. Unable to read Publish Set "
+                    + publishSetId + ": " + entry.error);
+        return entry.resolvedId;
+    }
+
+    /**
+     * Forgets the outcome of the user reading the Publish Set, so the next resolve(String, String) by the user
+     * reads it again.
+     *
+     * @param publishSetId the configured Publish Set id
+     * @param username the user who read the Publish Set
+     */
+    static void invalidate(String publishSetId, String username)
+    {
+        synchronized (ENTRIES)
+        {
+            ENTRIES.remove(getKey(publishSetId, username));
+        }
+    }
+
+    private static String getKey(String publishSetId, String username)
+    {
+        return publishSetId + "|" + username;
+    }
+
+    /**
+     * Drops the expired entries. Must be called while holding the ENTRIES lock.
+     */
+    private static void removeExpired(long now)
+    {
+        Iterator<Entry> it = ENTRIES.values().iterator();
+        while (it.hasNext())
+        {
+            if (now >= it.next().expiresOn)
+                it.remove();
+        }
+    }
+
+    private static Entry read(final String publishSetId, String username, long now)
+    {
+        Read read = new Read();
+        read.setToRead(new Identifier()
+        {
+            public String getId()
+            {
+                return publishSetId;
+            }
+
+            public EntityType getType()
+            {
+                return EntityTypes.TYPE_PUBLISHSET;
+            }
+        });
+        read.setUsername(username);
+        try
+        {
+            ReadOperationResult result = (ReadOperationResult) read.perform();
+            BaseAsset publishSet = result.getAsset();
+            if (publishSet != null && publishSet.getIdentifer() != null && !EntityTypes.TYPE_PUBLISHSET.equals(publishSet.getIdentifer().getType()))
+                return new Entry(null, "the asset is not a Publish Set", now + INVALID_TTL);
+
+            LOG.debug("Read Publish Set " + publishSetId);
+            String resolvedId = publishSet != null && publishSet.getIdentifer() != null ? publishSet.getIdentifer().getId() : publishSetId;
+            return new Entry(resolvedId, null, now + VALID_TTL);
+        }
+        catch (Exception e)
+        {
+            LOG.debug("Unable to read Publish Set " + publishSetId, e);
+            return new Entry(null, e.getMessage(), now + INVALID_TTL);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A size-bounded, least recently used on-disk cache of resized image bytes, shared by every
+ * CreateResizedImagesPlugin in the JVM configured with the same cache size. Each size has a cache and
+ * subdirectory of its own, so Asset Factories with different sizes never evict each other's entries. Entries are
+ * keyed by a hash of the original image bytes together with
+ * everything that affects the resized bytes (dimensions, format and resize settings), so the same image uploaded
+ * into another folder is served from the cache without being decoded or resized again.
+ *
+ * The index of entries is kept in memory and rebuilt from the cache directory, oldest first, the first time
+ * the cache is used after a restart.
+ *
+ * The cache directory is private to the user the JVM runs as: it is created readable and writable by its owner
+ * only, and a directory that already exists is only used if it is a real directory owned by that user with no
+ * access for anyone else. Otherwise the cache is not used at all, so other local users can neither read cached
+ * renditions nor plant their own.
+ *
+ * @since 8.17
+ */
+final class ResizedImageCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ResizedImageCache.class);
+
+    /** The directory, under java.io.tmpdir, the cached images are kept in, followed by the user name */
+    private static final String CACHE_DIRECTORY_NAME = "cascade-resized-images-";
+
+    /** The only permissions the cache directory may have on file systems that support POSIX permissions */
+    private static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The caches, keyed by their maximum size in bytes */
+    private static final Map<Long, ResizedImageCache> INSTANCES = new HashMap<Long, ResizedImageCache>();
+
+    /** Set once the cache directory has been found unsafe, so it is not checked again on every upload */
+    private static boolean unusable;
+
+    private final File directory;
+
+    /** The size in bytes of each cached file, keyed by file name, in least recently used order */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    private final long maxSize;
+    private long size;
+
+    private ResizedImageCache(File directory, long maxSize)
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the cache shared by every plugin configured with the given size, creating it the first time it is
+     * asked for. Entries left over from an earlier run are evicted right away if there are more than fit.
+     *
+     * @param maxSize the maximum total size of the cached images, in bytes
+     * @return the shared cache, or null if no private cache directory could be set up
+     */
+    static synchronized ResizedImageCache getInstance(long maxSize)
+    {
+        if (unusable)
+            return null;
+
+        ResizedImageCache instance = INSTANCES.get(maxSize);
+        if (instance == null)
+        {
+            File parent = new File(System.getProperty("java.io.tmpdir"), CACHE_DIRECTORY_NAME + System.getProperty("user.name"));
+            File directory = new File(parent, String.valueOf(maxSize));
+            try
+            {
+                createPrivateDirectory(parent.toPath());
+                createPrivateDirectory(directory.toPath());
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Not caching resized images, the cache directory " + directory + " cannot be used: " + e.getMessage());
+                unusable = true;
+                return null;
+            }
+
+            instance = new ResizedImageCache(directory, maxSize);
+            instance.load();
+            instance.evict();
+            INSTANCES.put(maxSize, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Hashes the original image bytes. The result is the first part of every key for that image.
+     *
+     * @param data the original image bytes
+     * @return a hex encoded SHA-256 hash of data
+     */
+    static String hash(byte[] data)
+    {
+        return toHex(getDigest().digest(data));
+    }
+
+    /**
+     * Creates the key of one resized image.
+     *
+     * @param contentHash the hash of the original image bytes, as returned by hash(byte[])
+     * @param width the width of the resized image, in pixels
+     * @param height the height of the resized image, in pixels
+     * @param format the format the resized image is written in
+     * @param settings any other settings that change the resized bytes
+     * @return the key of the resized image
+     */
+    static String createKey(String contentHash, int width, int height, String format, String settings)
+    {
+        String key = contentHash + "|" + width + "x" + height + "|" + format.toLowerCase() + "|" + settings;
+        return toHex(getDigest().digest(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Gets the cached bytes of every given key.
+     *
+     * @param keys the keys to look up
+     * @return the cached bytes in the same order as keys, or null unless every one of them is cached
+     */
+    byte[][] getAll(String[] keys)
+    {
+        byte[][] images = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++)
+        {
+            images[i] = get(keys[i]);
+            if (images[i] == null)
+                return null;
+        }
+        return images;
+    }
+
+    /**
+     * Gets the cached bytes for the key.
+     *
+     * @param key the key to look up
+     * @return the cached bytes, or null if they are not cached
+     */
+    byte[] get(String key)
+    {
+        synchronized (this)
+        {
+            if (entries.get(key) == null)
+                return null;
+        }
+
+        try
+        {
+            return Files.readAllBytes(new File(directory, key).toPath());
+        }
+        catch (IOException e)
+        {
+            // evicted or removed since it was looked up
+            LOG.debug("Unable to read cached image " + key, e);
+            synchronized (this)
+            {
+                Long removed = entries.remove(key);
+                if (removed != null)
+                    size -= removed;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Caches the bytes for the key, evicting the least recently used entries if the cache grows past its
+     * maximum size. Failures are logged and otherwise ignored, since the cache is only an optimization.
+     *
+     * @param key the key to cache the bytes under
+     * @param data the bytes to cache
+     */
+    void put(String key, byte[] data)
+    {
+        if (data.length > maxSize)
+            return;
+
+        File file = new File(directory, key);
+        try
+        {
+            // write to a temporary file first so a reader never sees a partially written image
+            File temp = File.createTempFile(key, ".tmp", directory);
+            Files.write(temp.toPath(), data);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            LOG.debug("Unable to cache image " + key, e);
+            return;
+        }
+
+        synchronized (this)
+        {
+            Long replaced = entries.put(key, Long.valueOf(data.length));
+            if (replaced != null)
+                size -= replaced;
+            size += data.length;
+            evict();
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits within its maximum size.
+     */
+    private synchronized void evict()
+    {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext())
+        {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            size -= eldest.getValue();
+            if (!new File(directory, eldest.getKey()).delete())
+                LOG.debug("Unable to delete cached image " + eldest.getKey());
+        }
+    }
+
+    /**
+     * Rebuilds the index from the files already in the cache directory, treating the least recently modified as
+     * the least recently used.
+     */
+    private synchronized void load()
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+
+        List<File> cached = new ArrayList<File>(Arrays.asList(files));
+        Collections.sort(cached, new Comparator<File>()
+        {
+            public int compare(File a, File b)
+            {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+
+        for (File file : cached)
+        {
+            if (file.getName().endsWith(".tmp"))
+            {
+                // left behind by a write that did not finish
+                file.delete();
+            }
+            else if (file.isFile())
+            {
+                entries.put(file.getName(), Long.valueOf(file.length()));
+                size += file.length();
+            }
+        }
+    }
+
+    /**
+     * Creates the directory with owner only permissions, or checks that the existing directory is a real
+     * directory, owned by the user the JVM runs as and with owner only permissions.
+     *
+     * @param directory the cache directory
+     * @throws IOException if the directory cannot be created or is not private
+     */
+    private static void createPrivateDirectory(Path directory) throws IOException
+    {
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS))
+        {
+            try
+            {
+                if (posix)
+                    Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(DIRECTORY_PERMISSIONS));
+                else
+                    Files.createDirectory(directory);
+                return;
+            }
+            catch (FileAlreadyExistsException e)
+            {
+                // created by someone else in the meantime, so it has to pass the checks below
+            }
+        }
+
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS))
+            throw new IOException("it is not a directory");
+
+        UserPrincipal owner = Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS);
+        UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+        if (!owner.equals(user))
+            throw new IOException("it is owned by " + owner.getName());
+
+        if (posix && !Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS).equals(DIRECTORY_PERMISSIONS))
+            throw new IOException("it is accessible to users other than its owner");
+    }
+
+    private static MessageDigest getDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
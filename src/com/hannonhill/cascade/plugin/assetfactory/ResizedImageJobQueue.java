@@ -0,0 +1,258 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The bounded background queue CreateResizedImagesPlugin hands its work to when it runs asynchronously, so the
+ * editor's create request does not wait for the resized copies.
+ *
+ * The queue holds at most QUEUE_CAPACITY jobs. When it is full a job is not accepted, and the submitter decides
+ * what to do with it instead; a worker never runs on the submitting request's thread. The jobs that are still
+ * queued or running, and the most recent succeeded and failed ones, can be inspected through getPendingJobs(),
+ * getSucceededJobs() and getFailedJobs().
+ *
+ * @since 8.17
+ */
+public final class ResizedImageJobQueue
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ResizedImageJobQueue.class);
+
+    /** The number of background threads working on the queue */
+    private static final int WORKER_THREADS = 2;
+
+    /** The most jobs waiting for a worker before new jobs are no longer accepted */
+    private static final int QUEUE_CAPACITY = 100;
+
+    /** The number of succeeded jobs remembered for getSucceededJobs() */
+    private static final int SUCCEEDED_JOB_HISTORY = 100;
+
+    /** The number of failed jobs remembered for getFailedJobs() */
+    private static final int FAILED_JOB_HISTORY = 100;
+
+    private static final AtomicLong JOB_COUNT = new AtomicLong();
+    private static final AtomicInteger WORKER_COUNT = new AtomicInteger();
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "ResizedImageJobQueue-worker-" + WORKER_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.AbortPolicy());
+
+    /** Jobs that are queued or running, in submission order */
+    private static final Map<Long, Job> PENDING = new LinkedHashMap<Long, Job>();
+
+    /** The most recent succeeded jobs, oldest first */
+    private static final LinkedList<Job> SUCCEEDED = new LinkedList<Job>();
+
+    /** The most recent failed jobs, oldest first */
+    private static final LinkedList<Job> FAILED = new LinkedList<Job>();
+
+    /**
+     * The work done by a job.
+     */
+    interface Task
+    {
+        void run() throws Exception;
+    }
+
+    /**
+     * The status of a submitted job.
+     */
+    public static final class Job
+    {
+        /** The job is waiting for a worker */
+        public static final String STATE_QUEUED = "queued";
+        /** A worker is working on the job */
+        public static final String STATE_RUNNING = "running";
+        /** The job finished without errors */
+        public static final String STATE_SUCCEEDED = "succeeded";
+        /** The job stopped with an error */
+        public static final String STATE_FAILED = "failed";
+
+        private final long id;
+        private final String description;
+        private final Date submittedOn;
+        private volatile String state = STATE_QUEUED;
+        private volatile Date finishedOn;
+        private volatile String error;
+
+        private Job(long id, String description)
+        {
+            this.id = id;
+            this.description = description;
+            this.submittedOn = new Date();
+        }
+
+        public long getId()
+        {
+            return id;
+        }
+
+        public String getDescription()
+        {
+            return description;
+        }
+
+        public Date getSubmittedOn()
+        {
+            return submittedOn;
+        }
+
+        public String getState()
+        {
+            return state;
+        }
+
+        /**
+         * @return when the job succeeded or failed, or null while it is pending
+         */
+        public Date getFinishedOn()
+        {
+            return finishedOn;
+        }
+
+        /**
+         * @return the message of the error the job failed with, or null while it is pending
+         */
+        public String getError()
+        {
+            return error;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "#" + id + " " + description + " (" + state + (error == null ? "" : ": " + error) + ")";
+        }
+    }
+
+    private ResizedImageJobQueue()
+    {
+    }
+
+    /**
+     * Queues the task to be run by a background worker.
+     *
+     * @param description what the job works on, e.g. the name of the original file
+     * @param task the work to do
+     * @return true if the task was queued, false if the queue is full and the task will not be run
+     */
+    static boolean submit(String description, final Task task)
+    {
+        final Job job = new Job(JOB_COUNT.incrementAndGet(), description);
+        synchronized (PENDING)
+        {
+            PENDING.put(job.id, job);
+        }
+
+        try
+        {
+            EXECUTOR.execute(new Runnable()
+            {
+                public void run()
+                {
+                    job.state = Job.STATE_RUNNING;
+                    try
+                    {
+                        task.run();
+                        job.finishedOn = new Date();
+                        job.state = Job.STATE_SUCCEEDED;
+                        LOG.debug("Finished resized image job " + job);
+                        remember(SUCCEEDED, job, SUCCEEDED_JOB_HISTORY);
+                    }
+                    catch (Exception e)
+                    {
+                        job.error = e.getMessage();
+                        job.finishedOn = new Date();
+                        job.state = Job.STATE_FAILED;
+                        LOG.error("Resized image job " + job + " failed", e);
+                        remember(FAILED, job, FAILED_JOB_HISTORY);
+                    }
+                    finally
+                    {
+                        synchronized (PENDING)
+                        {
+                            PENDING.remove(job.id);
+                        }
+                    }
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException e)
+        {
+            synchronized (PENDING)
+            {
+                PENDING.remove(job.id);
+            }
+            LOG.debug("The resized image job queue is full, not queueing " + job);
+            return false;
+        }
+    }
+
+    /**
+     * Adds the job to the history, dropping the oldest job if the history is full.
+     */
+    private static void remember(LinkedList<Job> history, Job job, int size)
+    {
+        synchronized (history)
+        {
+            history.addLast(job);
+            if (history.size() > size)
+                history.removeFirst();
+        }
+    }
+
+    /**
+     * @return the jobs that are queued or running, in submission order
+     */
+    public static List<Job> getPendingJobs()
+    {
+        synchronized (PENDING)
+        {
+            return new ArrayList<Job>(PENDING.values());
+        }
+    }
+
+    /**
+     * @return the most recent succeeded jobs, oldest first
+     */
+    public static List<Job> getSucceededJobs()
+    {
+        synchronized (SUCCEEDED)
+        {
+            return new ArrayList<Job>(SUCCEEDED);
+        }
+    }
+
+    /**
+     * @return the most recent failed jobs, oldest first
+     */
+    public static List<Job> getFailedJobs()
+    {
+        synchronized (FAILED)
+        {
+            return new ArrayList<Job>(FAILED);
+        }
+    }
+}
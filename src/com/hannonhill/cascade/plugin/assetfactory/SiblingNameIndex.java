@@ -0,0 +1,185 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.hannonhill.cascade.api.asset.common.Path;
+import com.hannonhill.cascade.api.asset.common.PathIdentifier;
+import com.hannonhill.cascade.api.asset.home.Folder;
+
+/**
+ * A short lived, case-insensitive index of the names in use in a folder, shared by every
+ * AssetFieldsToSystemNamePlugin in the JVM, so a generated system name can be made unique with a hash lookup
+ * instead of failing the create when a sibling already has it.
+ *
+ * Each index is built from a single read of the folder's child identifiers and then kept for TTL milliseconds.
+ * Names handed out by claim(Folder, String, String, int) are reserved right away, so assets created in the same
+ * folder in quick succession, such as during a bulk import, get distinct names even though none of them are in
+ * the repository yet when the next one is named. The plugin is not told whether the create then succeeds, so a
+ * reservation only holds for RESERVATION_TTL milliseconds. A claim that runs into an older reservation reads the
+ * folder's children again, keeping the names that were created and releasing the rest, so an editor who fixes a
+ * validation error and submits again gets the name back instead of a counter. At most MAX_FOLDERS folders are
+ * indexed at once, the least recently used being evicted first.
+ *
+ * Names are only unique within the folder the asset is in when AssetFieldsToSystemNamePlugin runs. An asset
+ * moved to another folder afterwards, e.g. by a plugin that runs later, is not checked against its new siblings.
+ *
+ * @since 8.17
+ */
+final class SiblingNameIndex
+{
+    /** How long an index is kept, in milliseconds */
+    private static final long TTL = 30 * 1000;
+
+    /** How long a claimed name is reserved before the folder is read again to see if it was created */
+    private static final long RESERVATION_TTL = 5 * 1000;
+
+    /** The most folders indexed at once */
+    private static final int MAX_FOLDERS = 256;
+
+    private static final Map<String, SiblingNameIndex> INDEXES = new LinkedHashMap<String, SiblingNameIndex>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SiblingNameIndex> eldest)
+        {
+            return size() > MAX_FOLDERS;
+        }
+    };
+
+    /** The lower case names of the folder's children, as last read */
+    private Set<String> names;
+
+    /** When each lower case name handed out but not yet seen among the children was claimed */
+    private final Map<String, Long> reserved = new HashMap<String, Long>();
+
+    private final long builtOn;
+
+    private SiblingNameIndex(Folder folder, long builtOn)
+    {
+        this.names = readNames(folder);
+        this.builtOn = builtOn;
+    }
+
+    /**
+     * Gets the index of the names in use in the folder, building it if it is not indexed or its index has
+     * expired.
+     *
+     * @param folder the folder
+     * @return the index of the folder
+     */
+    static SiblingNameIndex getIndex(Folder folder)
+    {
+        String folderId = folder.getIdentifer().getId();
+        long now = System.currentTimeMillis();
+        synchronized (INDEXES)
+        {
+            SiblingNameIndex index = INDEXES.get(folderId);
+            if (index != null && now - index.builtOn < TTL)
+                return index;
+        }
+
+        SiblingNameIndex index = new SiblingNameIndex(folder, now);
+        synchronized (INDEXES)
+        {
+            // another request may have indexed the folder in the meantime and already claimed names in it
+            SiblingNameIndex existing = INDEXES.get(folderId);
+            if (existing != null && now - existing.builtOn < TTL)
+                return existing;
+
+            INDEXES.put(folderId, index);
+            removeExpired(now);
+        }
+        return index;
+    }
+
+    /**
+     * Claims a name no other asset in the folder has, ignoring case. This is the name itself if it is free, or
+     * else the name followed by the separator and the lowest counter from 2 up that makes it free. If the name
+     * would then be longer than maxLength, the end of the name is dropped to make room for the counter.
+     *
+     * @param folder the folder as read for the current request, read again if an old reservation is in the way
+     * @param name the generated name
+     * @param separator what goes between the name and the counter, e.g. "-"
+     * @param maxLength the maximum length of the claimed name, or 0 for no limit
+     * @return the claimed name
+     */
+    synchronized String claim(Folder folder, String name, String separator, int maxLength)
+    {
+        long now = System.currentTimeMillis();
+        boolean reread = false;
+        String claimed = name;
+        int counter = 2;
+        while (true)
+        {
+            String key = getKey(claimed);
+            Long reservedOn = reserved.get(key);
+            if (!names.contains(key) && reservedOn == null)
+                break;
+
+            if (reservedOn != null && now - reservedOn >= RESERVATION_TTL && !reread)
+            {
+                // the create may have failed, so see which of the names handed out were actually created
+                names = readNames(folder);
+                reserved.keySet().removeAll(names);
+                Iterator<Long> it = reserved.values().iterator();
+                while (it.hasNext())
+                {
+                    if (now - it.next() >= RESERVATION_TTL)
+                        it.remove();
+                }
+                reread = true;
+                continue;
+            }
+
+            String suffix = separator + counter++;
+            int keep = maxLength > 0 ? Math.min(name.length(), Math.max(1, maxLength - suffix.length())) : name.length();
+            claimed = name.substring(0, keep) + suffix;
+        }
+
+        reserved.put(getKey(claimed), now);
+        return claimed;
+    }
+
+    /**
+     * @return the lower case names of the folder's children
+     */
+    private static Set<String> readNames(Folder folder)
+    {
+        List<PathIdentifier> children = folder.getChildrenIdentifiers();
+        Set<String> names = new HashSet<String>(children.size() * 2);
+        for (PathIdentifier child : children)
+        {
+            Path path = child.getPath();
+            List<String> segments = path == null ? null : path.getPathSegments();
+            if (segments != null && !segments.isEmpty())
+                names.add(getKey(segments.get(segments.size() - 1)));
+        }
+        return names;
+    }
+
+    /**
+     * Drops the expired indexes. Must be called while holding the INDEXES lock.
+     */
+    private static void removeExpired(long now)
+    {
+        Iterator<SiblingNameIndex> it = INDEXES.values().iterator();
+        while (it.hasNext())
+        {
+            if (now - it.next().builtOn >= TTL)
+                it.remove();
+        }
+    }
+
+    private static String getKey(String name)
+    {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,109 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hannonhill.cascade.api.asset.common.StructuredDataNode;
+
+/**
+ * An index of the text fields in an asset's structured data, built in a single pass over the tree, so any
+ * number of structured data field identifiers can be resolved without walking the tree again for each of them.
+ *
+ * Every text field is indexed under its own identifier and under each of the group paths leading to it from
+ * the root, e.g. a field "f" in group "h" in group "g" is found by the paths "f", "g/f" and "g/h/f". This is
+ * the same matching AssetFieldsPlugin has always done: the groups in a path must match from the root, while
+ * the field itself may be nested in further groups. Fields are listed in document order, so repeating groups
+ * resolve to all of their instances in order.
+ *
+ * @since 8.17
+ */
+final class StructuredDataIndex
+{
+    private final Map<String, List<StructuredDataNode>> nodes = new HashMap<String, List<StructuredDataNode>>();
+
+    /**
+     * Indexes the structured data.
+     *
+     * @param structuredData the root nodes of the asset's structured data
+     */
+    StructuredDataIndex(StructuredDataNode[] structuredData)
+    {
+        index(structuredData, new ArrayList<String>());
+    }
+
+    /**
+     * Creates the key a field is looked up by.
+     *
+     * @param path the group identifiers followed by the field identifier
+     * @return the key, or null for an empty path
+     */
+    static String getKey(String[] path)
+    {
+        if (path.length == 0)
+            return null;
+
+        StringBuilder key = new StringBuilder(path[0]);
+        for (int i = 1; i < path.length; i++)
+        {
+            key.append('/').append(path[i]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets the text fields at the path.
+     *
+     * @param key the path, as returned by getKey(String[])
+     * @return the matching text fields in document order, or an empty list if there are none
+     */
+    List<StructuredDataNode> getNodes(String key)
+    {
+        List<StructuredDataNode> matches = key == null ? null : nodes.get(key);
+        return matches == null ? Collections.<StructuredDataNode> emptyList() : matches;
+    }
+
+    private void index(StructuredDataNode[] structuredData, List<String> groups)
+    {
+        if (structuredData == null)
+            return;
+
+        for (StructuredDataNode node : structuredData)
+        {
+            if (node.isGroup())
+            {
+                groups.add(node.getIdentifier());
+                index(node.getGroup(), groups);
+                groups.remove(groups.size() - 1);
+            }
+            else if (node.isText())
+            {
+                add(groups, node);
+            }
+        }
+    }
+
+    /**
+     * Indexes the text field under its identifier prefixed by every leading part of its group path.
+     */
+    private void add(List<String> groups, StructuredDataNode node)
+    {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i <= groups.size(); i++)
+        {
+            if (i > 0)
+                key.append(groups.get(i - 1)).append('/');
+
+            String fieldKey = key + node.getIdentifier();
+            List<StructuredDataNode> matches = nodes.get(fieldKey);
+            if (matches == null)
+            {
+                matches = new ArrayList<StructuredDataNode>(1);
+                nodes.put(fieldKey, matches);
+            }
+            matches.add(node);
+        }
+    }
+}
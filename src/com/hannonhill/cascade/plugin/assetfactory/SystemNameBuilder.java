@@ -0,0 +1,114 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.Arrays;
+
+/**
+ * Builds the system name AssetFieldsToSystemNamePlugin generates, in a single pass over each normalized value
+ * and into one StringBuilder that is reused from one name to the next. Trimming, replacing spaces with the
+ * space token, lower casing and joining with the concatenation token all happen while the value is copied, so
+ * no intermediate Strings are created.
+ *
+ * If a maximum length is set, a longer name is cut back to the last word boundary, that is the last space or
+ * concatenation token, that fits. A name whose first word is already too long is cut at the maximum length.
+ *
+ * @since 8.17
+ */
+final class SystemNameBuilder
+{
+    private final StringBuilder name = new StringBuilder(64);
+
+    private String spaceToken;
+    private String concatToken;
+    private int maxLength;
+
+    /** Where each space and concatenation token starts in name, in order */
+    private int[] boundaries = new int[16];
+    private int boundaryCount;
+
+    /**
+     * Starts a new name.
+     *
+     * @param spaceToken what spaces within a value are replaced with; it is lower cased like the values are
+     * @param concatToken what values are joined with
+     * @param maxLength the maximum length of the name, or 0 for no limit
+     * @return this builder
+     */
+    SystemNameBuilder reset(String spaceToken, String concatToken, int maxLength)
+    {
+        this.spaceToken = spaceToken.toLowerCase();
+        this.concatToken = concatToken;
+        this.maxLength = maxLength;
+        name.setLength(0);
+        boundaryCount = 0;
+        return this;
+    }
+
+    /**
+     * Appends a normalized value, trimmed, with its spaces replaced by the space token and lower cased.
+     *
+     * @param value the normalized value
+     * @return this builder
+     */
+    SystemNameBuilder appendValue(String value)
+    {
+        int start = 0;
+        int end = value.length();
+        // the same characters String.trim() drops
+        while (start < end && value.charAt(start) <= ' ')
+            start++;
+        while (end > start && value.charAt(end - 1) <= ' ')
+            end--;
+
+        for (int i = start; i < end; i++)
+        {
+            char c = value.charAt(i);
+            if (c == ' ')
+            {
+                addBoundary();
+                name.append(spaceToken);
+            }
+            else
+            {
+                name.append(Character.toLowerCase(c));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends the concatenation token.
+     *
+     * @return this builder
+     */
+    SystemNameBuilder appendConcatToken()
+    {
+        addBoundary();
+        name.append(concatToken);
+        return this;
+    }
+
+    /**
+     * @return the name, cut back to fit the maximum length if there is one
+     */
+    @Override
+    public String toString()
+    {
+        if (maxLength <= 0 || name.length() <= maxLength)
+            return name.toString();
+
+        // cut at the last word boundary that leaves something of the name
+        for (int i = boundaryCount - 1; i >= 0; i--)
+        {
+            if (boundaries[i] > 0 && boundaries[i] <= maxLength)
+                return name.substring(0, boundaries[i]);
+        }
+        return name.substring(0, maxLength);
+    }
+
+    private void addBoundary()
+    {
+        if (boundaryCount == boundaries.length)
+            boundaries = Arrays.copyOf(boundaries, boundaryCount * 2);
+        boundaries[boundaryCount++] = name.length();
+    }
+}
@@ -0,0 +1,174 @@
+package com.hannonhill.cascade.plugin.assetfactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cms.assetfactory.PluginException;
+import com.hannonhill.cascade.api.asset.admin.User;
+import com.hannonhill.cascade.api.asset.common.Identifier;
+import com.hannonhill.cascade.api.operation.Read;
+import com.hannonhill.cascade.api.operation.result.ReadOperationResult;
+import com.hannonhill.cascade.model.dom.identifier.EntityType;
+import com.hannonhill.cascade.model.dom.identifier.EntityTypes;
+
+/**
+ * A short lived cache of User assets keyed by username, shared by every plugin in this package, so the users
+ * read once per plugin phase (e.g. to check canBypassWorkflow in both doPluginActionPre and doPluginActionPost)
+ * are read from the repository only once per upload.
+ *
+ * Users are cached for at most TTL milliseconds, so changes to their roles and groups are picked up quickly, and
+ * at most MAX_ENTRIES users are kept, the least recently used being evicted first.
+ *
+ * @since 8.17
+ */
+public final class UserCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(UserCache.class);
+
+    /** How long a user is cached, in milliseconds */
+    private static final long TTL = 30 * 1000;
+
+    /** The most users cached at once */
+    private static final int MAX_ENTRIES = 256;
+
+    private static final Map<String, Entry> ENTRIES = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+        {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static final AtomicLong HIT_COUNT = new AtomicLong();
+    private static final AtomicLong MISS_COUNT = new AtomicLong();
+
+    /**
+     * A cached user and when it was read.
+     */
+    private static final class Entry
+    {
+        private final User user;
+        private final long readOn;
+
+        private Entry(User user, long readOn)
+        {
+            this.user = user;
+            this.readOn = readOn;
+        }
+    }
+
+    private UserCache()
+    {
+    }
+
+    /**
+     * Gets the user, reading it as that user if it is not cached or its cache entry has expired.
+     *
+     * @param username the username of the user
+     * @return the user
+     * @throws PluginException if the user could not be read
+     */
+    static User getUser(final String username) throws PluginException
+    {
+        long now = System.currentTimeMillis();
+        synchronized (ENTRIES)
+        {
+            Entry entry = ENTRIES.get(username);
+            if (entry != null && now - entry.readOn < TTL)
+            {
+                HIT_COUNT.incrementAndGet();
+                return entry.user;
+            }
+        }
+
+        MISS_COUNT.incrementAndGet();
+        User user = readUser(username);
+        synchronized (ENTRIES)
+        {
+            ENTRIES.put(username, new Entry(user, now));
+            removeExpired(now);
+        }
+        return user;
+    }
+
+    /**
+     * Removes the user from the cache, so the next getUser(String) reads it again.
+     *
+     * @param username the username of the user
+     */
+    public static void invalidate(String username)
+    {
+        synchronized (ENTRIES)
+        {
+            ENTRIES.remove(username);
+        }
+    }
+
+    /**
+     * @return the number of getUser(String) calls answered from the cache since startup
+     */
+    public static long getHitCount()
+    {
+        return HIT_COUNT.get();
+    }
+
+    /**
+     * @return the number of getUser(String) calls that had to read the user since startup
+     */
+    public static long getMissCount()
+    {
+        return MISS_COUNT.get();
+    }
+
+    /**
+     * Drops the expired entries. Entries are kept in least recently used order rather than by age, so every
+     * entry is checked; there are at most MAX_ENTRIES of them. Must be called while holding the ENTRIES lock.
+     */
+    private static void removeExpired(long now)
+    {
+        Iterator<Entry> it = ENTRIES.values().iterator();
+        while (it.hasNext())
+        {
+            if (now - it.next().readOn >= TTL)
+                it.remove();
+        }
+    }
+
+    private static User readUser(final String username) throws PluginException
+    {
+        Read read = new Read();
+        Identifier identifier = new Identifier()
+        {
+            public String getId()
+            {
+                return username;
+            }
+
+            public EntityType getType()
+            {
+                return EntityTypes.TYPE_USER;
+            }
+        };
+
+        read.setToRead(identifier);
+        read.setUsername(username);
+        try
+        {
+            ReadOperationResult result = (ReadOperationResult) read.perform();
+            LOG.debug("Read user " + username);
+            return (User) result.getAsset();
+        }
+        catch (Exception e)
+        {
+            throw new PluginException("Unable to read the user: " + e.getMessage());
+        }
+    }
+}